@@ -114,7 +114,7 @@ public class CttNamespace implements UaNamespace {
             logger.error("Error adding reference to Connections folder.", e);
         }
 
-        subscriptionModel = new SubscriptionModel(server, this);
+        subscriptionModel = new SubscriptionModel(server, this, this::getNode);
 
         addStaticScalarNodes();
         addStaticArrayNodes();
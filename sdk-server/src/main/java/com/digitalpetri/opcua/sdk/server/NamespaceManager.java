@@ -19,13 +19,18 @@
 
 package com.digitalpetri.opcua.sdk.server;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 import com.digitalpetri.opcua.sdk.core.NamespaceTable;
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.config.NamespaceExecutorConfig;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import com.digitalpetri.opcua.sdk.server.util.NamespaceExecutor;
 import com.digitalpetri.opcua.sdk.server.util.NoOpNamespace;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaRuntimeException;
@@ -35,6 +40,7 @@ import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.IdType;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
@@ -46,8 +52,27 @@ public class NamespaceManager {
     private final NamespaceTable namespaceTable = new NamespaceTable();
 
     private final Map<UShort, Namespace> namespaces = Maps.newConcurrentMap();
+    private final Map<UShort, NamespaceExecutor> executors = Maps.newConcurrentMap();
+
+    /**
+     * Runs work for indices no namespace has been added for.
+     */
+    private final NamespaceExecutor defaultExecutor;
+
+    private final NamespaceExecutorConfig defaultExecutorConfig;
 
     public NamespaceManager() {
+        this(NamespaceExecutorConfig.fromLimits(new OpcUaServerConfigLimits() {}));
+    }
+
+    /**
+     * @param defaultExecutorConfig the {@link NamespaceExecutorConfig} for namespaces added without one.
+     */
+    public NamespaceManager(NamespaceExecutorConfig defaultExecutorConfig) {
+        this.defaultExecutorConfig = defaultExecutorConfig;
+
+        defaultExecutor = new NamespaceExecutor(-1, defaultExecutorConfig);
+
         namespaceTable.putUri(NamespaceTable.OpcUaNamespace, ushort(0));
     }
 
@@ -72,7 +97,27 @@ public class NamespaceManager {
      * @see #registerAndAdd(String, Function)
      */
     public void addNamespace(Namespace namespace) {
-        namespaces.put(namespace.getNamespaceIndex(), namespace);
+        addNamespace(namespace, defaultExecutorConfig);
+    }
+
+    /**
+     * Add a {@link Namespace} whose service calls and sampling reads run on an executor sized by
+     * {@code executorConfig}.
+     * <p>
+     * The URI must already be registered.
+     *
+     * @param namespace      The {@link Namespace} to add.
+     * @param executorConfig The {@link NamespaceExecutorConfig} for the namespace's executor.
+     */
+    public void addNamespace(Namespace namespace, NamespaceExecutorConfig executorConfig) {
+        UShort namespaceIndex = namespace.getNamespaceIndex();
+
+        namespaces.put(namespaceIndex, namespace);
+
+        NamespaceExecutor previous = executors.put(
+                namespaceIndex, new NamespaceExecutor(namespaceIndex.intValue(), executorConfig));
+
+        if (previous != null) previous.shutdown();
     }
 
     /**
@@ -86,9 +131,25 @@ public class NamespaceManager {
      * @return The {@link Namespace} returned by {@code namespaceFunction}.
      */
     public <T extends Namespace> T registerAndAdd(String namespaceUri, Function<UShort, T> namespaceFunction) {
+        return registerAndAdd(namespaceUri, namespaceFunction, defaultExecutorConfig);
+    }
+
+    /**
+     * Register a namespace URI and add the corresponding {@link Namespace}, with an executor sized by
+     * {@code executorConfig}.
+     *
+     * @param namespaceUri      The namespace URI to register.
+     * @param namespaceFunction A function that returns a {@link Namespace} for the supplied namespace index.
+     * @param executorConfig    The {@link NamespaceExecutorConfig} for the namespace's executor.
+     * @return The {@link Namespace} returned by {@code namespaceFunction}.
+     */
+    public <T extends Namespace> T registerAndAdd(String namespaceUri,
+                                                  Function<UShort, T> namespaceFunction,
+                                                  NamespaceExecutorConfig executorConfig) {
+
         UShort namespaceIndex = namespaceTable.addUri(namespaceUri);
         T namespace = namespaceFunction.apply(namespaceIndex);
-        namespaces.put(namespaceIndex, namespace);
+        addNamespace(namespace, executorConfig);
 
         return namespace;
     }
@@ -103,6 +164,37 @@ public class NamespaceManager {
         return namespace != null ? namespace : NO_OP_NAMESPACE;
     }
 
+    public Executor getExecutor(int index) {
+        return getExecutor(ushort(index));
+    }
+
+    /**
+     * Get the executor that service calls and sampling reads for the namespace at {@code index} run on.
+     * <p>
+     * The executor is bounded; work it can't queue is rejected with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @param index the namespace index.
+     * @return the {@link Executor} for the namespace at {@code index}.
+     */
+    public Executor getExecutor(UShort index) {
+        NamespaceExecutor executor = executors.get(index);
+
+        return executor != null ? executor : defaultExecutor;
+    }
+
+    /**
+     * @return the {@link NamespaceExecutor} of each namespace, for reporting per-namespace saturation.
+     */
+    public List<NamespaceExecutor> getExecutors() {
+        return ImmutableList.copyOf(executors.values());
+    }
+
+    public void shutdown() {
+        executors.values().forEach(NamespaceExecutor::shutdown);
+        defaultExecutor.shutdown();
+    }
+
 //    public boolean containsNodeId(NodeId nodeId) {
 //        Namespace namespace = namespaces.get(nodeId.getNamespaceIndex());
 //
@@ -19,6 +19,7 @@
 
 package com.digitalpetri.opcua.sdk.server;
 
+import java.math.RoundingMode;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.KeyPair;
@@ -30,14 +31,21 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.digitalpetri.opcua.sdk.core.ServerTable;
 import com.digitalpetri.opcua.sdk.core.api.ReferenceType;
+import com.digitalpetri.opcua.sdk.server.api.config.NamespaceExecutorConfig;
 import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfig;
 import com.digitalpetri.opcua.sdk.server.namespaces.OpcUaNamespace;
 import com.digitalpetri.opcua.sdk.server.namespaces.VendorNamespace;
 import com.digitalpetri.opcua.sdk.server.services.helpers.BrowseHelper.BrowseContinuationPoint;
+import com.digitalpetri.opcua.sdk.server.subscriptions.OrphanedSubscriptions;
+import com.digitalpetri.opcua.sdk.server.subscriptions.PublishWorkers;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription;
+import com.digitalpetri.opcua.sdk.server.util.HashedTimerWheel;
+import com.digitalpetri.opcua.sdk.server.util.MemoryBudget;
+import com.digitalpetri.opcua.sdk.server.util.OverloadGovernor;
 import com.digitalpetri.opcua.stack.core.Stack;
 import com.digitalpetri.opcua.stack.core.application.UaStackServer;
 import com.digitalpetri.opcua.stack.core.application.services.AttributeServiceSet;
@@ -63,6 +71,7 @@ import com.digitalpetri.opcua.stack.server.tcp.UaTcpServerBuilder;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
+import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,13 +95,19 @@ public class OpcUaServer {
     private final Map<NodeId, ReferenceType> referenceTypes = Maps.newConcurrentMap();
 
     private final Map<UInteger, Subscription> subscriptions = Maps.newConcurrentMap();
+    private final OrphanedSubscriptions orphanedSubscriptions = new OrphanedSubscriptions(this);
 
-    private final NamespaceManager namespaceManager = new NamespaceManager();
+    private final NamespaceManager namespaceManager;
     private final SessionManager sessionManager = new SessionManager(this);
     private final ServerTable serverTable = new ServerTable();
 
     private final UaStackServer stackServer;
     private final EventBus eventBus;
+    private final HashedTimerWheel publishingTimerWheel;
+    private final MemoryBudget retransmissionBudget;
+    private final MemoryBudget queueBudget;
+    private final PublishWorkers publishWorkers;
+    private final OverloadGovernor overloadGovernor;
 
     private final OpcUaNamespace uaNamespace;
 
@@ -101,6 +116,8 @@ public class OpcUaServer {
     public OpcUaServer(OpcUaServerConfig config) {
         this.config = config;
 
+        namespaceManager = new NamespaceManager(NamespaceExecutorConfig.fromLimits(config.getLimits()));
+
         stackServer = buildStackServer();
 
         stackServer.addServiceSet((AttributeServiceSet) sessionManager);
@@ -155,16 +172,38 @@ public class OpcUaServer {
 
         eventBus = new AsyncEventBus("server", stackServer.getExecutorService());
 
+        long tickMicros = DoubleMath.roundToLong(
+                config.getLimits().getPublishingTimerTickInterval() * 1000.0, RoundingMode.UP);
+
+        publishingTimerWheel = new HashedTimerWheel(
+                SHARED_SCHEDULED_EXECUTOR,
+                stackServer.getExecutorService(),
+                tickMicros, TimeUnit.MICROSECONDS,
+                config.getLimits().getPublishingTimerWheelSize());
+
+        retransmissionBudget = new MemoryBudget(config.getLimits().getMaxRetransmissionBytes());
+        queueBudget = new MemoryBudget(config.getLimits().getMaxQueueBytes());
+
+        publishWorkers = new PublishWorkers(config.getLimits().getPublishWorkerCount());
+
+        overloadGovernor = new OverloadGovernor(this);
+
         logger.info("digitalpetri opc-ua stack version: {}", Stack.VERSION);
         logger.info("digitalpetri opc-ua sdk version: {}", SDK_VERSION);
     }
 
     public void startup() {
+        publishingTimerWheel.start();
+        overloadGovernor.startup();
         stackServer.startup();
     }
 
     public void shutdown() {
         stackServer.shutdown();
+        publishingTimerWheel.stop();
+        overloadGovernor.shutdown();
+        publishWorkers.shutdown();
+        namespaceManager.shutdown();
     }
 
     private UaStackServer buildStackServer() {
@@ -233,6 +272,13 @@ public class OpcUaServer {
         return subscriptions;
     }
 
+    /**
+     * @return the {@link OrphanedSubscriptions} retained after their sessions closed, awaiting reattachment.
+     */
+    public OrphanedSubscriptions getOrphanedSubscriptions() {
+        return orphanedSubscriptions;
+    }
+
     public Optional<KeyPair> getKeyPair(ByteString thumbprint) {
         return stackServer.getCertificateManager().getKeyPair(thumbprint);
     }
@@ -249,6 +295,41 @@ public class OpcUaServer {
         return SHARED_SCHEDULED_EXECUTOR;
     }
 
+    /**
+     * @return the {@link HashedTimerWheel} that drives the publishing timers of this server's subscriptions.
+     */
+    public HashedTimerWheel getPublishingTimerWheel() {
+        return publishingTimerWheel;
+    }
+
+    /**
+     * @return the server-wide {@link MemoryBudget} for NotificationMessages kept for Republish.
+     */
+    public MemoryBudget getRetransmissionBudget() {
+        return retransmissionBudget;
+    }
+
+    /**
+     * @return the server-wide {@link MemoryBudget} for monitored item queues.
+     */
+    public MemoryBudget getQueueBudget() {
+        return queueBudget;
+    }
+
+    /**
+     * @return the {@link PublishWorkers} that run the publishing work of this server's subscriptions.
+     */
+    public PublishWorkers getPublishWorkers() {
+        return publishWorkers;
+    }
+
+    /**
+     * @return the {@link OverloadGovernor} that degrades sampling when the server can't keep up.
+     */
+    public OverloadGovernor getOverloadGovernor() {
+        return overloadGovernor;
+    }
+
     public ChannelConfig getChannelConfig() {
         return stackServer.getChannelConfig();
     }
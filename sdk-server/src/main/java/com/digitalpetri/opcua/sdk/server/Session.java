@@ -159,9 +159,10 @@ public class Session implements SessionServiceSet {
         if (elapsed > sessionTimeout.toNanos()) {
             logger.debug("Session id={} lifetime expired ({}ms).", sessionId, sessionTimeout.toMillis());
 
-            subscriptionManager.sessionClosed(true);
+            // subscriptions may outlive a timed-out session, orphaned until reattached or their lifetime expires.
+            boolean subscriptionsDeleted = subscriptionManager.sessionClosed(false);
 
-            listeners.forEach(listener -> listener.onSessionClosed(this, true));
+            listeners.forEach(listener -> listener.onSessionClosed(this, subscriptionsDeleted));
         } else {
             long remaining = sessionTimeout.toNanos() - elapsed;
             logger.trace("Session id={} timeout scheduled for +{}s.",
@@ -235,9 +236,9 @@ public class Session implements SessionServiceSet {
             checkTimeoutFuture.cancel(false);
         }
 
-        subscriptionManager.sessionClosed(deleteSubscriptions);
+        boolean subscriptionsDeleted = subscriptionManager.sessionClosed(deleteSubscriptions);
 
-        listeners.forEach(listener -> listener.onSessionClosed(this, deleteSubscriptions));
+        listeners.forEach(listener -> listener.onSessionClosed(this, subscriptionsDeleted));
     }
 
     @Override
@@ -247,6 +248,11 @@ public class Session implements SessionServiceSet {
     //endregion
 
     public static interface LifecycleListener {
+        /**
+         * @param session              the {@link Session} that closed or timed out.
+         * @param subscriptionsDeleted {@code true} if all of its subscriptions were deleted, {@code false} if any
+         *                             were retained for reattachment.
+         */
         void onSessionClosed(Session session, boolean subscriptionsDeleted);
     }
 }
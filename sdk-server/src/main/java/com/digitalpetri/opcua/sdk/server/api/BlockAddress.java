@@ -0,0 +1,94 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import java.util.Objects;
+
+import com.google.common.base.MoreObjects;
+
+/**
+ * Where a value lives in a device's address space, for planning block reads.
+ * <p>
+ * Values in the same {@code area} (e.g. a Modbus unit's holding registers, or a PLC data block) with nearby offsets
+ * can be read together in a single request. Offsets and lengths are in whatever unit the area is addressed in.
+ */
+public final class BlockAddress {
+
+    private final Object area;
+    private final long offset;
+    private final int length;
+
+    /**
+     * @param area   identifies a contiguously addressable area; compared with {@link Object#equals(Object)}.
+     * @param offset the offset of the value within the area.
+     * @param length the number of units the value occupies.
+     */
+    public BlockAddress(Object area, long offset, int length) {
+        this.area = area;
+        this.offset = offset;
+        this.length = Math.max(length, 1);
+    }
+
+    public Object getArea() {
+        return area;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the offset just past the end of the value.
+     */
+    public long getEnd() {
+        return offset + length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BlockAddress that = (BlockAddress) o;
+
+        return offset == that.offset &&
+                length == that.length &&
+                Objects.equals(area, that.area);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(area, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("area", area)
+                .add("offset", offset)
+                .add("length", length)
+                .toString();
+    }
+
+}
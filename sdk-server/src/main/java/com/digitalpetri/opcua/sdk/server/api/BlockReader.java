@@ -0,0 +1,109 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
+import com.digitalpetri.opcua.sdk.server.util.FutureUtils;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
+
+/**
+ * An {@link AttributeManager} backed by a register- or block-addressed device, whose sampled values are cheapest to
+ * read in contiguous blocks.
+ * <p>
+ * Sampled items are planned once per change to a sampling schedule with {@link #planReads(List)}, and every sample of
+ * that schedule is then read with {@link #readPlanned(ReadContext, ReadPlan)}, so implementations can issue one device
+ * request per {@link ReadPlan.Block} instead of regrouping the values on every sample.
+ */
+public interface BlockReader extends AttributeManager {
+
+    /**
+     * @param readValueId a value to read.
+     * @return the {@link BlockAddress} of the value, or {@code null} if it can't be read as part of a block.
+     */
+    @Nullable
+    BlockAddress getBlockAddress(ReadValueId readValueId);
+
+    /**
+     * @param area an area returned by {@link BlockAddress#getArea()}.
+     * @return the {@link ReadCostModel} for reads from {@code area}.
+     */
+    default ReadCostModel getCostModel(Object area) {
+        return ReadCostModel.DEFAULT;
+    }
+
+    /**
+     * Plan block reads for {@code readValueIds}. Override to replace the planner.
+     *
+     * @param readValueIds the values to read.
+     * @return a {@link ReadPlan}.
+     */
+    default ReadPlan planReads(List<ReadValueId> readValueIds) {
+        return ReadPlan.create(readValueIds, this);
+    }
+
+    /**
+     * Read the values in {@code plan}.
+     * <p>
+     * When the operation is finished, complete {@link ReadContext#getFuture()} with a value for each of
+     * {@link ReadPlan#getReadValueIds()}, in that order. By default each block's values are handed to
+     * {@link #read(ReadContext, Double, TimestampsToReturn, List)} in a read of their own, followed by one read of the
+     * unplanned values, and the results are joined in plan order. Override to read each block's range directly.
+     *
+     * @param context the {@link ReadContext}.
+     * @param plan    the {@link ReadPlan} to carry out.
+     */
+    default void readPlanned(ReadContext context, ReadPlan plan) {
+        List<List<ReadValueId>> parts = Lists.newArrayListWithCapacity(plan.getBlocks().size() + 1);
+
+        plan.getBlocks().forEach(block -> parts.add(block.getReadValueIds()));
+
+        if (!plan.getUnplanned().isEmpty()) parts.add(plan.getUnplanned());
+
+        List<CompletableFuture<List<DataValue>>> futures = Lists.newArrayListWithCapacity(parts.size());
+
+        for (List<ReadValueId> readValueIds : parts) {
+            ReadContext part = new ReadContext(
+                    context.getServer(), context.getSession().orElse(null), new DiagnosticsContext<>());
+
+            read(part, 0d, TimestampsToReturn.Both, readValueIds);
+
+            futures.add(part.getFuture());
+        }
+
+        FutureUtils.sequence(futures).whenComplete((values, ex) -> {
+            if (values != null) {
+                context.getFuture().complete(values.stream()
+                        .flatMap(List::stream)
+                        .collect(Collectors.toList()));
+            } else {
+                context.getFuture().completeExceptionally(ex);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+/**
+ * Lets a {@link Namespace} feed values to its {@link DataItem}s as it learns of changes, instead of having them
+ * sampled by reads.
+ * <p>
+ * A namespace registers each item it will push from {@link MonitoredItemManager#onDataItemsCreated(java.util.List)} and
+ * unregisters it from {@link MonitoredItemManager#onDataItemsDeleted(java.util.List)}. Updates may be pushed from any thread.
+ * <p>
+ * Backpressure is credit based. Each registered item has its own credit, the number of values its queue can take
+ * before it overflows; see {@link #getCredit(DataItem)}. The sink's credit is the sum over all items, but is reported
+ * as zero while any single item is saturated, since one hot item can overflow while the others still have room. A
+ * driver that runs out of credit should hold back (or coalesce) changes, at least for the saturated items, until
+ * {@link CreditListener#onCreditAvailable(int)} is called, rather than being polled.
+ */
+public interface DataChangeSink {
+
+    /**
+     * Start accepting updates for {@code item}.
+     *
+     * @param item the {@link DataItem} to accept updates for.
+     */
+    void register(DataItem item);
+
+    /**
+     * Stop accepting updates for {@code item}.
+     *
+     * @param item the {@link DataItem} to stop accepting updates for.
+     */
+    void unregister(DataItem item);
+
+    /**
+     * Push a batch of updates. Updates for items that aren't registered are ignored.
+     *
+     * @param updates the updates, applied in iteration order.
+     * @return the credit remaining after the batch was applied.
+     */
+    int push(Collection<DataItemUpdate> updates);
+
+    /**
+     * @return the number of values the registered items can currently queue in total; zero or less while any of
+     * them is saturated.
+     */
+    int getCredit();
+
+    /**
+     * @param item a registered {@link DataItem}.
+     * @return the number of values {@code item} can currently queue before it overflows; zero or less when it is
+     * saturated. {@link Integer#MAX_VALUE} if the item doesn't report its capacity, and zero if it isn't registered.
+     */
+    int getCredit(DataItem item);
+
+    /**
+     * @param listener notified when credit becomes available again after it was exhausted, or {@code null}.
+     */
+    void setCreditListener(@Nullable CreditListener listener);
+
+    interface CreditListener {
+
+        /**
+         * Credit became available after it was exhausted, i.e. the last saturated item can queue values again.
+         * <p>
+         * Called from the thread that drained the queues, possibly while a monitored item's monitor is held;
+         * implementations must not block or push from this callback.
+         *
+         * @param credit the credit now available.
+         */
+        void onCreditAvailable(int credit);
+
+    }
+
+}
@@ -31,6 +31,19 @@ public interface DataItem extends MonitoredItem {
      */
     void setValue(DataValue value);
 
+    /**
+     * Check, without side effects, whether {@link #setValue(DataValue)} could keep {@code value}.
+     * <p>
+     * Samplers call this with the value as read, before applying the item's {@link #getTimestampsToReturn()}, and skip
+     * preparing and setting values that would be discarded anyway. Return {@code true} when unsure.
+     *
+     * @param value the sampled value, as read.
+     * @return {@code false} if {@code value} would certainly be discarded.
+     */
+    default boolean passesFilter(DataValue value) {
+        return true;
+    }
+
     /**
      * Apply a new {@link StatusCode} to the last value that passed the filter and then attempt to set the derived value.
      *
@@ -43,4 +56,20 @@ public interface DataItem extends MonitoredItem {
      */
     double getSamplingInterval();
 
+    /**
+     * @return {@code true} if this item must be sampled at its sampling interval even if its value only changes
+     * occasionally, e.g. because it reports on a schedule of its own.
+     */
+    default boolean isPeriodicSamplingRequired() {
+        return false;
+    }
+
+    /**
+     * @return the priority of the subscription this item belongs to. Items with a lower priority are sampled less
+     * often first when the server is overloaded.
+     */
+    default int getPriority() {
+        return 0;
+    }
+
 }
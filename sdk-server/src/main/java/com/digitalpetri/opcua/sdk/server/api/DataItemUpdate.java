@@ -0,0 +1,45 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+
+/**
+ * A new value for a {@link DataItem}, pushed through a {@link DataChangeSink}.
+ */
+public final class DataItemUpdate {
+
+    private final DataItem item;
+    private final DataValue value;
+
+    public DataItemUpdate(DataItem item, DataValue value) {
+        this.item = item;
+        this.value = value;
+    }
+
+    public DataItem getItem() {
+        return item;
+    }
+
+    public DataValue getValue() {
+        return value;
+    }
+
+}
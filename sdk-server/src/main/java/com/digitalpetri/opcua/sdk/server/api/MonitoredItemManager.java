@@ -29,7 +29,8 @@ public interface MonitoredItemManager {
      * {@link DataItem}s have been created for nodes belonging to this {@link NodeManager}.
      * <p>
      * If sampling is enabled for this item, it is expected that a best-effort will be made to update the item's value
-     * at the sampling rate.
+     * at the sampling rate. Namespaces that are notified of changes by their source can push them through a
+     * {@link DataChangeSink} instead of sampling.
      *
      * @param dataItems the {@link DataItem}s that were created.
      */
@@ -0,0 +1,79 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+/**
+ * What it costs to read from an area of a device's address space, used to decide whether two values are cheaper to
+ * read in one block request or in two.
+ * <p>
+ * Two values are merged into one block when the block stays within {@link #getMaxBlockLength()}, and the gap between
+ * them is no more than {@link #getMaxGap()} units and costs no more to read than another request would.
+ */
+public final class ReadCostModel {
+
+    /**
+     * A request costs as much as reading 16 units; blocks are at most 125 units, the most a single Modbus read of
+     * holding registers may return.
+     */
+    public static final ReadCostModel DEFAULT = new ReadCostModel(16.0, 1.0, 125, 16);
+
+    private final double requestCost;
+    private final double unitCost;
+    private final int maxBlockLength;
+    private final int maxGap;
+
+    /**
+     * @param requestCost    the fixed cost of issuing one read request.
+     * @param unitCost       the cost of reading one unit.
+     * @param maxBlockLength the most units a single request may read.
+     * @param maxGap         the most unused units a block may read to bridge two values.
+     */
+    public ReadCostModel(double requestCost, double unitCost, int maxBlockLength, int maxGap) {
+        this.requestCost = requestCost;
+        this.unitCost = unitCost;
+        this.maxBlockLength = maxBlockLength;
+        this.maxGap = maxGap;
+    }
+
+    public double getRequestCost() {
+        return requestCost;
+    }
+
+    public double getUnitCost() {
+        return unitCost;
+    }
+
+    public int getMaxBlockLength() {
+        return maxBlockLength;
+    }
+
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * @param gap the number of unused units between the end of a block and the next value.
+     * @return {@code true} if reading through the gap is cheaper than starting a new request.
+     */
+    public boolean isWorthBridging(long gap) {
+        return gap <= 0 || (gap <= maxGap && gap * unitCost <= requestCost);
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * A list of {@link ReadValueId}s arranged into contiguous block reads.
+ * <p>
+ * {@link #getReadValueIds()} lists the members of each {@link Block} in turn, in address order, followed by the values
+ * that couldn't be placed in a block. A {@link BlockReader} completes a planned read with one value per entry of that
+ * list, in that order; {@link #getIndex(int)} maps each back to the list the plan was created from.
+ */
+public final class ReadPlan {
+
+    private static final Comparator<Member> BY_ADDRESS = Comparator
+            .<Member>comparingLong(m -> m.address.getOffset())
+            .thenComparingInt(m -> m.address.getLength());
+
+    private final List<Block> blocks;
+    private final List<ReadValueId> unplanned;
+    private final List<ReadValueId> readValueIds;
+    private final int[] indices;
+
+    private ReadPlan(List<Block> blocks, List<ReadValueId> unplanned, List<ReadValueId> readValueIds, int[] indices) {
+        this.blocks = blocks;
+        this.unplanned = unplanned;
+        this.readValueIds = readValueIds;
+        this.indices = indices;
+    }
+
+    /**
+     * @return the planned block reads.
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the values that have no {@link BlockAddress} and must be read individually.
+     */
+    public List<ReadValueId> getUnplanned() {
+        return unplanned;
+    }
+
+    /**
+     * @return every value in the plan, in the order a planned read completes with them.
+     */
+    public List<ReadValueId> getReadValueIds() {
+        return readValueIds;
+    }
+
+    /**
+     * @param position a position in {@link #getReadValueIds()}.
+     * @return the index of that value in the list the plan was created from.
+     */
+    public int getIndex(int position) {
+        return indices[position];
+    }
+
+    /**
+     * @return the number of device requests the plan takes: one per block and one per unplanned value.
+     */
+    public int getRequestCount() {
+        return blocks.size() + unplanned.size();
+    }
+
+    /**
+     * Plan reads of {@code readValueIds} using the addresses and cost models of {@code reader}.
+     * <p>
+     * Values are grouped by area and sorted by offset. Each block is grown greedily with the next value as long as the
+     * area's {@link ReadCostModel} says bridging the gap is worth it and the block stays within its max length.
+     *
+     * @param readValueIds the values to read.
+     * @param reader       the {@link BlockReader} the values will be read from.
+     * @return a {@link ReadPlan}.
+     */
+    public static ReadPlan create(List<ReadValueId> readValueIds, BlockReader reader) {
+        return create(readValueIds, reader::getBlockAddress, reader::getCostModel);
+    }
+
+    /**
+     * @param readValueIds the values to read.
+     * @param addresses    the {@link BlockAddress} of each value, or {@code null} if it can't be read in a block.
+     * @param costModels   the {@link ReadCostModel} of each area.
+     * @return a {@link ReadPlan}.
+     * @see #create(List, BlockReader)
+     */
+    static ReadPlan create(List<ReadValueId> readValueIds,
+                           Function<ReadValueId, BlockAddress> addresses,
+                           Function<Object, ReadCostModel> costModels) {
+
+        Map<Object, List<Member>> byArea = new LinkedHashMap<>();
+        List<Member> unaddressed = Lists.newArrayList();
+
+        for (int i = 0; i < readValueIds.size(); i++) {
+            ReadValueId readValueId = readValueIds.get(i);
+            BlockAddress address = addresses.apply(readValueId);
+
+            Member member = new Member(i, readValueId, address);
+
+            if (address != null) {
+                byArea.computeIfAbsent(address.getArea(), a -> Lists.newArrayList()).add(member);
+            } else {
+                unaddressed.add(member);
+            }
+        }
+
+        ImmutableList.Builder<Block> blocks = ImmutableList.builder();
+        ImmutableList.Builder<ReadValueId> ordered = ImmutableList.builder();
+        int[] indices = new int[readValueIds.size()];
+        int position = 0;
+
+        for (Map.Entry<Object, List<Member>> entry : byArea.entrySet()) {
+            Object area = entry.getKey();
+            List<Member> members = entry.getValue();
+            ReadCostModel costModel = costModels.apply(area);
+
+            Collections.sort(members, BY_ADDRESS);
+
+            int start = 0;
+
+            while (start < members.size()) {
+                long offset = members.get(start).address.getOffset();
+                long end = members.get(start).address.getEnd();
+                int next = start + 1;
+
+                while (next < members.size()) {
+                    BlockAddress address = members.get(next).address;
+                    long merged = Math.max(end, address.getEnd());
+
+                    if (merged - offset > costModel.getMaxBlockLength() ||
+                            !costModel.isWorthBridging(address.getOffset() - end)) break;
+
+                    end = merged;
+                    next++;
+                }
+
+                List<Member> blockMembers = members.subList(start, next);
+
+                for (Member m : blockMembers) {
+                    ordered.add(m.readValueId);
+                    indices[position++] = m.index;
+                }
+
+                blocks.add(new Block(area, offset, (int) (end - offset), blockMembers));
+
+                start = next;
+            }
+        }
+
+        ImmutableList.Builder<ReadValueId> unplanned = ImmutableList.builder();
+
+        for (Member m : unaddressed) {
+            unplanned.add(m.readValueId);
+            ordered.add(m.readValueId);
+            indices[position++] = m.index;
+        }
+
+        return new ReadPlan(blocks.build(), unplanned.build(), ordered.build(), indices);
+    }
+
+    /**
+     * A single read of {@link #getLength()} units at {@link #getOffset()} in {@link #getArea()}, covering each of its
+     * members.
+     */
+    public static final class Block {
+
+        private final Object area;
+        private final long offset;
+        private final int length;
+        private final List<ReadValueId> readValueIds;
+        private final List<BlockAddress> addresses;
+
+        private Block(Object area, long offset, int length, List<Member> members) {
+            this.area = area;
+            this.offset = offset;
+            this.length = length;
+
+            ImmutableList.Builder<ReadValueId> readValueIds = ImmutableList.builder();
+            ImmutableList.Builder<BlockAddress> addresses = ImmutableList.builder();
+
+            for (Member m : members) {
+                readValueIds.add(m.readValueId);
+                addresses.add(m.address);
+            }
+
+            this.readValueIds = readValueIds.build();
+            this.addresses = addresses.build();
+        }
+
+        public Object getArea() {
+            return area;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the values covered by this block, in address order.
+         */
+        public List<ReadValueId> getReadValueIds() {
+            return readValueIds;
+        }
+
+        /**
+         * @return the {@link BlockAddress} of each of {@link #getReadValueIds()}.
+         */
+        public List<BlockAddress> getAddresses() {
+            return addresses;
+        }
+
+    }
+
+    private static final class Member {
+
+        private final int index;
+        private final ReadValueId readValueId;
+        private final BlockAddress address;
+
+        private Member(int index, ReadValueId readValueId, BlockAddress address) {
+            this.index = index;
+            this.readValueId = readValueId;
+            this.address = address;
+        }
+
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api.config;
+
+/**
+ * Sizes the executor a {@link com.digitalpetri.opcua.sdk.server.api.Namespace}'s service calls and sampling reads
+ * run on.
+ */
+public class NamespaceExecutorConfig {
+
+    private final int threadCount;
+    private final int queueSize;
+
+    /**
+     * @param threadCount the maximum number of threads running work for the namespace at once.
+     * @param queueSize   the number of tasks that may wait for a thread before further work is rejected.
+     */
+    public NamespaceExecutorConfig(int threadCount, int queueSize) {
+        this.threadCount = Math.max(threadCount, 1);
+        this.queueSize = Math.max(queueSize, 1);
+    }
+
+    /**
+     * @param limits the {@link OpcUaServerConfigLimits} to take the default executor size from.
+     * @return a {@link NamespaceExecutorConfig} sized by {@code limits}.
+     */
+    public static NamespaceExecutorConfig fromLimits(OpcUaServerConfigLimits limits) {
+        return new NamespaceExecutorConfig(
+                limits.getNamespaceExecutorThreadCount(),
+                limits.getNamespaceExecutorQueueSize());
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+}
@@ -19,10 +19,12 @@
 
 package com.digitalpetri.opcua.sdk.server.api.config;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.google.common.collect.ImmutableList;
 
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ushort;
@@ -41,6 +43,20 @@ public interface OpcUaServerConfigLimits {
         return (double) TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS);
     }
 
+    /**
+     * Requested sampling intervals are rounded up to the next of these rates, and intervals longer than the largest
+     * rate up to a multiple of it, so items share sampling groups instead of each odd interval getting its own. No item
+     * is sampled faster than it requested.
+     * <p>
+     * For example {@code 100, 250, 500, 1000, 2000, 5000, 10000, 30000, 60000}.
+     *
+     * @return the sampling intervals, in milliseconds, the server samples at. Empty, the default, to sample at any
+     * interval between the min and max supported sample rates.
+     */
+    default List<Double> getSupportedSampleRates() {
+        return ImmutableList.of();
+    }
+
     default UShort getMaxBrowseContinuationPoints() {
         return ushort(UShort.MAX_VALUE);
     }
@@ -109,4 +125,178 @@ public interface OpcUaServerConfigLimits {
         return uint(0x1FFFF);
     }
 
+    /**
+     * @return the tick duration, in milliseconds, of the timer wheel that drives subscription publishing timers.
+     */
+    default Double getPublishingTimerTickInterval() {
+        return 10.0;
+    }
+
+    /**
+     * @return the number of buckets in the timer wheel that drives subscription publishing timers.
+     */
+    default Integer getPublishingTimerWheelSize() {
+        return 512;
+    }
+
+    /**
+     * @return the maximum number of unacknowledged NotificationMessages kept for Republish per subscription.
+     */
+    default UInteger getMaxRetransmissionQueueSize() {
+        return uint(256);
+    }
+
+    /**
+     * The number of most recent NotificationMessages every subscription keeps for Republish even when the
+     * retransmission memory budget has been exhausted by other subscriptions.
+     *
+     * @return the minimum number of unacknowledged NotificationMessages kept for Republish per subscription.
+     */
+    default UInteger getMinRetransmissionQueueSize() {
+        return uint(2);
+    }
+
+    /**
+     * @return the maximum number of bytes of unacknowledged NotificationMessages kept for Republish per session.
+     */
+    default Long getMaxRetransmissionBytesPerSession() {
+        return 16L * 1024 * 1024;
+    }
+
+    /**
+     * @return the maximum number of bytes of unacknowledged NotificationMessages kept for Republish by the server.
+     */
+    default Long getMaxRetransmissionBytes() {
+        return 256L * 1024 * 1024;
+    }
+
+    /**
+     * @return the number of workers that subscription publishing work is sharded across.
+     */
+    default Integer getPublishWorkerCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * The fraction of the channel's max message size that the estimated size of the notifications in a single
+     * NotificationMessage may use before the rest are held back for the next PublishResponse.
+     *
+     * @return the fraction, between 0 and 1, of the max message size available to notifications.
+     */
+    default Double getNotificationMessageSizeFraction() {
+        return 0.8;
+    }
+
+    /**
+     * @return the number of threads each namespace's executor runs service calls and sampling reads on, unless the
+     * namespace was added with its own configuration.
+     */
+    default Integer getNamespaceExecutorThreadCount() {
+        return 4;
+    }
+
+    /**
+     * @return the number of tasks that may wait on each namespace's executor before further work for that namespace
+     * is rejected, unless the namespace was added with its own configuration.
+     */
+    default Integer getNamespaceExecutorQueueSize() {
+        return 4096;
+    }
+
+    /**
+     * A sampling read still outstanding after this long is failed with Bad_Timeout so that sampling can resume. It is
+     * never shorter than the sampling interval.
+     *
+     * @return the time, in milliseconds, a sampling read may take before it is abandoned.
+     */
+    default Double getSamplingReadTimeout() {
+        return 10000.0;
+    }
+
+    /**
+     * @return the maximum estimated number of bytes the monitored item queues of a single session may reserve.
+     */
+    default Long getMaxQueueBytesPerSession() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * Requested queue sizes are revised down when granting them would exceed this budget or the per-session budget.
+     *
+     * @return the maximum estimated number of bytes all monitored item queues on the server may reserve.
+     */
+    default Long getMaxQueueBytes() {
+        return 512L * 1024 * 1024;
+    }
+
+    /**
+     * Subscriptions left behind when a session times out, or closes without deleting them, keep sampling for at most
+     * this long, bounded by their own lifetime, and may be reattached to a new session with TransferSubscriptions.
+     *
+     * @return the time, in milliseconds, orphaned subscriptions are retained. 0, the default, deletes them with their
+     * session.
+     */
+    default Double getOrphanedSubscriptionRetention() {
+        return 0.0;
+    }
+
+    /**
+     * @return the maximum number of orphaned subscriptions retained for a single user identity.
+     */
+    default Integer getMaxOrphanedSubscriptionsPerUser() {
+        return 64;
+    }
+
+    /**
+     * @return the maximum number of orphaned subscriptions retained by the server.
+     */
+    default Integer getMaxOrphanedSubscriptions() {
+        return 1024;
+    }
+
+    /**
+     * @return the interval, in milliseconds, at which the overload governor re-evaluates whether the server is keeping
+     * up. 0 disables the governor.
+     */
+    default Double getOverloadEvaluationInterval() {
+        return 1000.0;
+    }
+
+    /**
+     * @return the number of tasks queued on the server and namespace executors above which the server is considered
+     * overloaded.
+     */
+    default Integer getOverloadQueueDepthThreshold() {
+        return 1000;
+    }
+
+    /**
+     * @return the number of sampling overruns per evaluation interval above which the server is considered overloaded.
+     */
+    default Long getOverloadOverrunThreshold() {
+        return 10L;
+    }
+
+    /**
+     * @return the time, in milliseconds, a publishing timer may fire late before the server is considered overloaded.
+     */
+    default Double getOverloadPublishLatencyThreshold() {
+        return 250.0;
+    }
+
+    /**
+     * @return the subscription priority at and above which sampling is never degraded under overload.
+     */
+    default Integer getOverloadProtectedPriority() {
+        return 192;
+    }
+
+    /**
+     * @return the number of consecutive evaluation intervals without overload before the degradation level is
+     * lowered by one.
+     */
+    default Integer getOverloadRecoveryIntervals() {
+        return 5;
+    }
+
 }
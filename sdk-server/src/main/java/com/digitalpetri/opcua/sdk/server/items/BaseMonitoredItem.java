@@ -19,11 +19,15 @@
 
 package com.digitalpetri.opcua.sdk.server.items;
 
+import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.util.MemoryBudget;
 import com.digitalpetri.opcua.sdk.server.util.RingBuffer;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
@@ -32,21 +36,42 @@ import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 
 public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
 
     private static final int MAX_QUEUE_SIZE = 0xFFFF;
 
+    private static final CapacityListener[] NO_CAPACITY_LISTENERS = new CapacityListener[0];
+
+    /**
+     * Estimated bytes retained per queued value: the queue slot plus a DataValue with its Variant, StatusCode and
+     * timestamps.
+     */
+    public static final int QUEUE_ENTRY_SIZE = 128;
+
     protected volatile Map<UInteger, BaseMonitoredItem<?>> triggeredItems;
     protected volatile boolean triggered = false;
 
     protected volatile RingBuffer<ValueType> queue;
 
+    private final AtomicBoolean ready = new AtomicBoolean(false);
+    private volatile ReadyListener readyListener;
+
+    /**
+     * Copied on write under this item's monitor; read on every queue change.
+     */
+    private volatile CapacityListener[] capacityListeners = NO_CAPACITY_LISTENERS;
+
+    private MemoryBudget queueBudget;
+    private long queueReservation = 0L;
+
     protected volatile long clientHandle;
     protected volatile int queueSize;
     protected volatile double samplingInterval;
     protected volatile boolean discardOldest;
+    protected volatile int priority;
 
     protected final UInteger id;
     protected final ReadValueId readValueId;
@@ -83,6 +108,7 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
     }
 
     public synchronized boolean getNotifications(List<UaStructure> notifications, int max) {
+        int remaining = getRemainingCapacity();
         int queueSize = queue.size();
         int count = Math.min(queueSize, max);
 
@@ -90,12 +116,18 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
             notifications.add(wrapQueueValue(queue.remove()));
         }
 
+        capacityChanged(remaining);
+
         boolean queueIsEmpty = queue.isEmpty();
 
         if (queueIsEmpty && triggered) {
             triggered = false;
         }
 
+        if (queueIsEmpty) {
+            resetReady();
+        }
+
         return queueIsEmpty;
     }
 
@@ -103,6 +135,108 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
         return (queue.size() > 0 && monitoringMode == MonitoringMode.Reporting);
     }
 
+    /**
+     * @return {@code true} if this item has notifications to report, either because it is reporting or because it
+     * has been triggered.
+     */
+    public synchronized boolean isReportable() {
+        return hasNotifications() || triggered;
+    }
+
+    /**
+     * Mark this item as triggered by a triggering item it is linked to.
+     * <p>
+     * This does not acquire this item's monitor so that triggering items can call it while holding their own.
+     */
+    public void trigger() {
+        triggered = true;
+
+        signalReady();
+    }
+
+    /**
+     * Notify the {@link ReadyListener}, if any, that this item may have notifications to report.
+     * <p>
+     * The listener is notified at most once until {@link #resetReady()} is called.
+     */
+    protected void signalReady() {
+        if (!ready.get() && ready.compareAndSet(false, true)) {
+            ReadyListener listener = readyListener;
+
+            if (listener != null) {
+                listener.onItemReady(this);
+            }
+        }
+    }
+
+    /**
+     * Allow the {@link ReadyListener} to be notified again the next time this item becomes ready. If the item is
+     * still reportable the listener is notified again immediately.
+     */
+    public void resetReady() {
+        ready.set(false);
+
+        if (isReportable()) {
+            signalReady();
+        }
+    }
+
+    public void setReadyListener(ReadyListener readyListener) {
+        this.readyListener = readyListener;
+    }
+
+    /**
+     * Notify {@code capacityListener} of changes in this item's remaining queue capacity. An item may be fed by more
+     * than one source, so any number of listeners can be added.
+     *
+     * @param capacityListener the {@link CapacityListener} to add.
+     */
+    public synchronized void addCapacityListener(CapacityListener capacityListener) {
+        CapacityListener[] listeners = Arrays.copyOf(capacityListeners, capacityListeners.length + 1);
+        listeners[listeners.length - 1] = capacityListener;
+
+        capacityListeners = listeners;
+    }
+
+    /**
+     * @param capacityListener the {@link CapacityListener} to remove.
+     */
+    public synchronized void removeCapacityListener(CapacityListener capacityListener) {
+        List<CapacityListener> listeners = Lists.newArrayList(capacityListeners);
+
+        if (listeners.remove(capacityListener)) {
+            capacityListeners = listeners.isEmpty() ?
+                    NO_CAPACITY_LISTENERS : listeners.toArray(new CapacityListener[listeners.size()]);
+        }
+    }
+
+    /**
+     * @return the number of values that can be queued before the queue overflows.
+     */
+    public synchronized int getRemainingCapacity() {
+        return queue.maxSize() - queue.size();
+    }
+
+    /**
+     * Notify the {@link CapacityListener}s, if any, of the change in remaining capacity since {@code remaining} was
+     * sampled. Must be called with this item's monitor held.
+     *
+     * @param remaining the remaining capacity before the queue was changed.
+     */
+    protected void capacityChanged(int remaining) {
+        CapacityListener[] listeners = capacityListeners;
+
+        if (listeners.length == 0) return;
+
+        int delta = getRemainingCapacity() - remaining;
+
+        if (delta != 0) {
+            for (CapacityListener listener : listeners) {
+                listener.onCapacityChanged(this, delta);
+            }
+        }
+    }
+
     public synchronized void modify(TimestampsToReturn timestamps,
                                     UInteger clientHandle,
                                     double samplingInterval,
@@ -110,32 +244,115 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
                                     UInteger queueSize,
                                     boolean discardOldest) throws UaException {
 
-        installFilter(filter);
+        int remaining = getRemainingCapacity();
+
+        // the filter may be revised against the new sampling interval.
+        double previousSamplingInterval = this.samplingInterval;
+        this.samplingInterval = samplingInterval;
+
+        try {
+            installFilter(filter);
+        } catch (UaException e) {
+            this.samplingInterval = previousSamplingInterval;
+            throw e;
+        }
 
         this.timestamps = timestamps;
         this.clientHandle = clientHandle.longValue();
-        this.samplingInterval = samplingInterval;
         this.discardOldest = discardOldest;
 
         if (queueSize.intValue() != this.queueSize) {
+            releaseQueueMemory();
             setQueueSize(queueSize);
+            reserveQueueMemory();
+            resizeQueue();
+        }
+
+        capacityChanged(remaining);
+
+        if (queue.size() > 0) {
+            signalReady();
+        }
+    }
+
+    private void resizeQueue() {
+        if (queue.maxSize() == queueSize) return;
+
+        RingBuffer<ValueType> oldQueue = queue;
+        queue = new RingBuffer<>(queueSize);
+
+        while (oldQueue.size() > 0) {
+            enqueue(oldQueue.remove());
+        }
+    }
+
+    /**
+     * Account this item's queue against {@code queueBudget}, moving any existing reservation off the previous budget.
+     * <p>
+     * If the current queue size doesn't fit, it is revised down until it does. A queue size of 1 is always granted so
+     * every item can still report its latest value.
+     *
+     * @param queueBudget the {@link MemoryBudget} to reserve queue memory from, or {@code null} for none.
+     */
+    public synchronized void setQueueBudget(@Nullable MemoryBudget queueBudget) {
+        releaseQueueMemory();
+
+        this.queueBudget = queueBudget;
+
+        reserveQueueMemory();
+        resizeQueue();
+    }
+
+    /**
+     * Release this item's queue reservation, if any. Called when the item is deleted.
+     */
+    public synchronized void releaseQueueMemory() {
+        if (queueBudget != null && queueReservation > 0) {
+            queueBudget.release(queueReservation);
+        }
+
+        queueReservation = 0L;
+    }
+
+    /**
+     * @return the number of bytes this item's queue has reserved from its {@link MemoryBudget}.
+     */
+    public synchronized long getQueueReservation() {
+        return queueReservation;
+    }
+
+    private void reserveQueueMemory() {
+        if (queueBudget == null) return;
+
+        int size = queueSize;
 
-            RingBuffer<ValueType> oldQueue = queue;
-            queue = new RingBuffer<>(this.queueSize);
+        while (true) {
+            long bytes = (long) size * QUEUE_ENTRY_SIZE;
 
-            while (oldQueue.size() > 0) {
-                enqueue(oldQueue.remove());
+            if (queueBudget.tryReserve(bytes)) {
+                queueReservation = bytes;
+                break;
+            } else if (size == 1) {
+                break;
             }
+
+            size = Math.max(size / 2, 1);
         }
+
+        queueSize = size;
     }
 
     protected abstract void enqueue(ValueType value);
 
-    public void setMonitoringMode(MonitoringMode monitoringMode) {
+    public synchronized void setMonitoringMode(MonitoringMode monitoringMode) {
         this.monitoringMode = monitoringMode;
 
         if (monitoringMode == MonitoringMode.Disabled) {
+            int remaining = getRemainingCapacity();
             queue.clear();
+            capacityChanged(remaining);
+        } else if (monitoringMode == MonitoringMode.Reporting) {
+            signalReady();
         }
     }
 
@@ -166,6 +383,17 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
         return samplingInterval;
     }
 
+    /**
+     * @return the priority of the subscription this item belongs to.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
     public boolean isDiscardOldest() {
         return discardOldest;
     }
@@ -190,4 +418,31 @@ public abstract class BaseMonitoredItem<ValueType> implements MonitoredItem {
 
     protected abstract UaStructure wrapQueueValue(ValueType value);
 
+    public interface ReadyListener {
+
+        /**
+         * {@code item} has transitioned from having nothing to report to possibly having notifications to report.
+         * <p>
+         * May be called from any thread, possibly while the item's monitor is held.
+         *
+         * @param item the {@link BaseMonitoredItem} that is ready.
+         */
+        void onItemReady(BaseMonitoredItem<?> item);
+
+    }
+
+    public interface CapacityListener {
+
+        /**
+         * The remaining capacity of {@code item}'s queue changed by {@code delta}.
+         * <p>
+         * Called with the item's monitor held; implementations must not block.
+         *
+         * @param item  the {@link BaseMonitoredItem} whose queue changed.
+         * @param delta the change in remaining capacity; negative when values were queued.
+         */
+        void onCapacityChanged(BaseMonitoredItem<?> item, int delta);
+
+    }
+
 }
@@ -19,9 +19,15 @@
 
 package com.digitalpetri.opcua.sdk.server.items;
 
+import javax.annotation.Nullable;
+
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.model.AttributeObserver;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.util.AggregateMonitoringFilter;
 import com.digitalpetri.opcua.sdk.server.util.DataChangeMonitoringFilter;
+import com.digitalpetri.opcua.sdk.server.util.DataValueRingBuffer;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
@@ -39,21 +45,47 @@ import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
 import com.digitalpetri.opcua.stack.core.types.structured.EventFilter;
 import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
 import com.digitalpetri.opcua.stack.core.types.structured.MonitoringFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
 public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements DataItem {
 
-    private static final DataChangeFilter DefaultFilter = new DataChangeFilter(
-            DataChangeTrigger.StatusValue,
-            uint(DeadbandType.None.getValue()),
-            0.0
+    private static final DataChangeMonitoringFilter DefaultFilter = DataChangeMonitoringFilter.compile(
+            new DataChangeFilter(
+                    DataChangeTrigger.StatusValue,
+                    uint(DeadbandType.None.getValue()),
+                    0.0
+            )
     );
 
     private volatile DataValue lastValue = null;
-    private volatile DataChangeFilter filter = null;
+    private volatile DataChangeMonitoringFilter filter = DefaultFilter;
     private volatile ExtensionObject filterResult = null;
+    private volatile AggregateMonitoringFilter aggregate = null;
+
+    /**
+     * The EURange property node of the monitored node, if it has one. Only consulted by a PercentDeadband filter.
+     */
+    private volatile UaNode euRangeNode = null;
+    private volatile Range euRange = null;
+
+    /**
+     * Whether {@link #euRangeObserver} is registered on {@link #euRangeNode}. Tracked separately from
+     * {@link #euRange}, which the observer clears when an invalid EURange is written.
+     */
+    private boolean euRangeObserved = false;
+
+    /**
+     * Nodes hold their observers weakly; this reference keeps it registered for as long as the item is alive.
+     */
+    private final AttributeObserver euRangeObserver = (node, attributeId, value) -> {
+        if (attributeId == AttributeIds.Value) {
+            euRange = toRange(value);
+            filter.setEURange(euRange);
+        }
+    };
 
     public MonitoredDataItem(UInteger id,
                              ReadValueId readValueId,
@@ -65,28 +97,97 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
                              UInteger queueSize,
                              boolean discardOldest) throws UaException {
 
+        this(id, readValueId, monitoringMode, timestamps, clientHandle,
+                samplingInterval, filter, queueSize, discardOldest, null);
+    }
+
+    public MonitoredDataItem(UInteger id,
+                             ReadValueId readValueId,
+                             MonitoringMode monitoringMode,
+                             TimestampsToReturn timestamps,
+                             UInteger clientHandle,
+                             double samplingInterval,
+                             ExtensionObject filter,
+                             UInteger queueSize,
+                             boolean discardOldest,
+                             @Nullable UaNode euRangeNode) throws UaException {
+
         super(id, readValueId, monitoringMode, timestamps, clientHandle, samplingInterval, queueSize, discardOldest);
 
+        this.euRangeNode = euRangeNode;
+
         installFilter(filter);
     }
 
     @Override
     public synchronized void setValue(DataValue value) {
-        boolean valuePassesFilter = DataChangeMonitoringFilter.filter(lastValue, value, filter);
+        AggregateMonitoringFilter aggregate = this.aggregate;
 
-        if (valuePassesFilter) {
+        if (aggregate != null) {
             lastValue = value;
 
-            enqueue(value);
+            // reports through report() when the sample closes an interval.
+            aggregate.add(value);
+        } else if (filter.test(lastValue, value, isSourceTimeReturned())) {
+            lastValue = value;
 
-            if (triggeredItems != null) {
-                triggeredItems.values().forEach(item -> item.triggered = true);
-            }
+            report(value);
+        }
+    }
+
+    /**
+     * Samplers pass the value as read, while {@link #lastValue} may have had its timestamps removed already. The filter
+     * only ever compares source timestamps, and only when the item returns them, so both forms give the same result.
+     */
+    @Override
+    public boolean passesFilter(DataValue value) {
+        return aggregate != null || filter.test(lastValue, value, isSourceTimeReturned());
+    }
+
+    /**
+     * @return {@code true} if values are reported with their source timestamp, or are reported as they are.
+     */
+    private boolean isSourceTimeReturned() {
+        TimestampsToReturn timestamps = this.timestamps;
+
+        if (timestamps == null) return true;
+
+        return getReadValueId().getAttributeId().intValue() == AttributeIds.Value &&
+                (timestamps == TimestampsToReturn.Source || timestamps == TimestampsToReturn.Both);
+    }
+
+    private void report(DataValue value) {
+        value = withTimestamps(value);
+
+        int remaining = getRemainingCapacity();
+        enqueue(value);
+        capacityChanged(remaining);
+        signalReady();
+
+        if (triggeredItems != null) {
+            triggeredItems.values().forEach(BaseMonitoredItem::trigger);
         }
     }
 
+    /**
+     * An aggregate is reported when a sample closes its processing interval, so the item has to be sampled even when
+     * its value doesn't change.
+     */
+    @Override
+    public boolean isPeriodicSamplingRequired() {
+        return aggregate != null;
+    }
+
     @Override
     protected void enqueue(DataValue value) {
+        if (queue.isEmpty() && queue.maxSize() > 1 &&
+                !(queue instanceof DataValueRingBuffer) &&
+                DataValueRingBuffer.isPrimitive(value)) {
+
+            // buffered numeric samples are kept in primitive columns; only switch while there's nothing to move.
+            queue = new DataValueRingBuffer(queue.maxSize());
+        }
+
         if (queue.size() < queue.maxSize()) {
             queue.add(value);
         } else {
@@ -139,18 +240,42 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
         lastValue = null;
     }
 
+    /**
+     * Provide the EURange property node a PercentDeadband filter is evaluated against, if it wasn't known when the
+     * item was created. Must be called before {@link #modify} installs a filter that needs it.
+     *
+     * @param euRangeNode the EURange property node of the monitored node, or {@code null} if it has none.
+     */
+    public synchronized void setEURangeNode(@Nullable UaNode euRangeNode) {
+        if (this.euRangeNode == null) {
+            this.euRangeNode = euRangeNode;
+        }
+    }
+
+    /**
+     * @return the EURange a PercentDeadband filter is currently evaluated against, or {@code null} if the installed
+     * filter isn't a PercentDeadband filter.
+     */
+    @Nullable
+    public Range getEURange() {
+        return euRange;
+    }
+
     @Override
     protected void installFilter(ExtensionObject filterXo) throws UaException {
         if (filterXo == null || filterXo.decode() == null) {
             this.filter = DefaultFilter;
+            this.aggregate = null;
+            this.filterResult = null;
+            uninstallEURange();
         } else {
             Object filterObject = filterXo.decode();
 
             if (filterObject instanceof MonitoringFilter) {
                 if (filterObject instanceof DataChangeFilter) {
-                    this.filter = ((DataChangeFilter) filterObject);
+                    DataChangeFilter dataChangeFilter = (DataChangeFilter) filterObject;
 
-                    DeadbandType deadbandType = DeadbandType.from(filter.getDeadbandType().intValue());
+                    DeadbandType deadbandType = DeadbandType.from(dataChangeFilter.getDeadbandType().intValue());
 
                     if (deadbandType == null) {
                         throw new UaException(StatusCodes.Bad_DeadbandFilterInvalid);
@@ -160,8 +285,38 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
                             getReadValueId().getAttributeId().intValue() != AttributeIds.Value) {
                         throw new UaException(StatusCodes.Bad_FilterNotAllowed);
                     }
+
+                    DataChangeMonitoringFilter compiled = DataChangeMonitoringFilter.compile(dataChangeFilter);
+
+                    if (deadbandType == DeadbandType.Percent) {
+                        double deadbandValue = dataChangeFilter.getDeadbandValue();
+
+                        if (deadbandValue < 0.0 || deadbandValue > 100.0) {
+                            throw new UaException(StatusCodes.Bad_DeadbandFilterInvalid);
+                        }
+
+                        installEURange();
+                        compiled.setEURange(euRange);
+                    } else {
+                        uninstallEURange();
+                    }
+
+                    this.filter = compiled;
+                    this.aggregate = null;
+                    this.filterResult = null;
                 } else if (filterObject instanceof AggregateFilter) {
-                    throw new UaException(StatusCodes.Bad_MonitoredItemFilterUnsupported);
+                    if (getReadValueId().getAttributeId().intValue() != AttributeIds.Value) {
+                        throw new UaException(StatusCodes.Bad_FilterNotAllowed);
+                    }
+
+                    AggregateMonitoringFilter aggregate = AggregateMonitoringFilter.create(
+                            (AggregateFilter) filterObject, getSamplingInterval(), this::report);
+
+                    uninstallEURange();
+
+                    this.filter = DefaultFilter;
+                    this.aggregate = aggregate;
+                    this.filterResult = ExtensionObject.encode(aggregate.getFilterResult());
                 } else if (filterObject instanceof EventFilter) {
                     throw new UaException(StatusCodes.Bad_FilterNotAllowed);
                 }
@@ -171,15 +326,94 @@ public class MonitoredDataItem extends BaseMonitoredItem<DataValue> implements D
         }
     }
 
+    /**
+     * Resolve the EURange once and observe its property node so later changes are picked up without re-reading it
+     * on every sample.
+     *
+     * @throws UaException {@link StatusCodes#Bad_FilterNotAllowed} if the monitored node has no usable EURange.
+     */
+    private void installEURange() throws UaException {
+        UaNode node = euRangeNode;
+
+        Range range = node != null ? toRange(node.readAttribute(AttributeIds.Value)) : null;
+
+        if (range == null) {
+            throw new UaException(StatusCodes.Bad_FilterNotAllowed);
+        }
+
+        if (!euRangeObserved) {
+            node.addAttributeObserver(euRangeObserver);
+            euRangeObserved = true;
+        }
+
+        euRange = range;
+    }
+
+    private void uninstallEURange() {
+        UaNode node = euRangeNode;
+
+        if (euRangeObserved) {
+            node.removeAttributeObserver(euRangeObserver);
+            euRangeObserved = false;
+        }
+
+        euRange = null;
+    }
+
+    @Nullable
+    private static Range toRange(Object value) {
+        if (value instanceof DataValue) {
+            value = ((DataValue) value).getValue().getValue();
+        }
+        if (value instanceof ExtensionObject) {
+            value = ((ExtensionObject) value).decode();
+        }
+
+        if (value instanceof Range) {
+            Range range = (Range) value;
+
+            if (range.getLow() != null && range.getHigh() != null) {
+                return range;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public ExtensionObject getFilterResult() {
         return filterResult;
     }
 
+    /**
+     * Apply this item's {@link TimestampsToReturn} to a value about to be queued. Sampled values usually have it
+     * applied already and are queued as they are; only values carrying a timestamp the item doesn't return are
+     * copied.
+     */
+    private DataValue withTimestamps(DataValue value) {
+        TimestampsToReturn timestamps = this.timestamps;
+
+        if (timestamps == null) return value;
+
+        boolean valueAttribute = getReadValueId().getAttributeId().intValue() == AttributeIds.Value;
+
+        boolean sourceTime = valueAttribute &&
+                (timestamps == TimestampsToReturn.Source || timestamps == TimestampsToReturn.Both);
+        boolean serverTime =
+                timestamps == TimestampsToReturn.Server || timestamps == TimestampsToReturn.Both;
+
+        if ((sourceTime || value.getSourceTime() == null) && (serverTime || value.getServerTime() == null)) {
+            return value;
+        }
+
+        return valueAttribute ?
+                DataValue.derivedValue(value, timestamps) :
+                DataValue.derivedNonValue(value, timestamps);
+    }
+
     @Override
     protected MonitoredItemNotification wrapQueueValue(DataValue value) {
-        value = DataValue.derivedValue(value, timestamps);
-
+        // timestamps were applied when the value was queued.
         return new MonitoredItemNotification(uint(getClientHandle()), value);
     }
 
@@ -53,7 +53,7 @@ public class MonitoredEventItem extends BaseMonitoredItem<Variant[]> implements
     }
 
     @Override
-    public void setEvent(BaseEventType event) {
+    public synchronized void setEvent(BaseEventType event) {
         // TODO Apply EventFilter...
 
         Variant[] variants = new Variant[]{
@@ -65,6 +65,7 @@ public class MonitoredEventItem extends BaseMonitoredItem<Variant[]> implements
         };
 
         enqueue(variants);
+        signalReady();
     }
 
     @Override
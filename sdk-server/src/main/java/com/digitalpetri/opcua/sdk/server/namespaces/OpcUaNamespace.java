@@ -90,7 +90,7 @@ public class OpcUaNamespace implements UaNamespace {
 
         loadNodes();
 
-        subscriptionModel = new SubscriptionModel(server, this);
+        subscriptionModel = new SubscriptionModel(server, this, this::getNode);
 
         configureServerObject();
     }
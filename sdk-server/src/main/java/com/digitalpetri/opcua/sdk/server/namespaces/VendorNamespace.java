@@ -72,7 +72,7 @@ public class VendorNamespace implements UaNamespace {
         this.server = server;
         this.namespaceUri = namespaceUri;
 
-        subscriptionModel = new SubscriptionModel(server, this);
+        subscriptionModel = new SubscriptionModel(server, this, this::getNode);
 
         addVendorServerInfoNodes();
     }
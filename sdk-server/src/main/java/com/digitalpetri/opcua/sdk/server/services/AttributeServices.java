@@ -22,6 +22,7 @@ package com.digitalpetri.opcua.sdk.server.services;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
@@ -111,25 +112,31 @@ public class AttributeServices implements AttributeServiceSet {
 
             ReadContext context = new ReadContext(server, session, diagnosticsContext);
 
-            server.getExecutorService().execute(() -> {
-                Namespace namespace = server.getNamespaceManager().getNamespace(index);
-
-                List<ReadValueId> readValueIds = pending.stream()
-                        .map(PendingRead::getInput)
-                        .collect(toList());
-
-                namespace.read(
-                        context,
-                        request.getMaxAge(),
-                        request.getTimestampsToReturn(),
-                        readValueIds);
-            });
-
             context.getFuture().thenAccept(values -> {
                 for (int i = 0; i < values.size(); i++) {
                     pending.get(i).getFuture().complete(values.get(i));
                 }
             });
+
+            try {
+                server.getNamespaceManager().getExecutor(index).execute(() -> {
+                    Namespace namespace = server.getNamespaceManager().getNamespace(index);
+
+                    List<ReadValueId> readValueIds = pending.stream()
+                            .map(PendingRead::getInput)
+                            .collect(toList());
+
+                    namespace.read(
+                            context,
+                            request.getMaxAge(),
+                            request.getTimestampsToReturn(),
+                            readValueIds);
+                });
+            } catch (RejectedExecutionException e) {
+                DataValue value = new DataValue(new StatusCode(StatusCodes.Bad_ResourceUnavailable));
+
+                pending.forEach(p -> p.getFuture().complete(value));
+            }
         });
 
 		/*
@@ -189,21 +196,27 @@ public class AttributeServices implements AttributeServiceSet {
 
             WriteContext context = new WriteContext(server, session, diagnosticsContext);
 
-            server.getExecutorService().execute(() -> {
-                Namespace namespace = server.getNamespaceManager().getNamespace(index);
-
-                List<WriteValue> writeValues = pending.stream()
-                        .map(PendingWrite::getInput)
-                        .collect(toList());
-
-                namespace.write(context, writeValues);
-            });
-
             context.getFuture().thenAccept(statusCodes -> {
                 for (int i = 0; i < statusCodes.size(); i++) {
                     pending.get(i).getFuture().complete(statusCodes.get(i));
                 }
             });
+
+            try {
+                server.getNamespaceManager().getExecutor(index).execute(() -> {
+                    Namespace namespace = server.getNamespaceManager().getNamespace(index);
+
+                    List<WriteValue> writeValues = pending.stream()
+                            .map(PendingWrite::getInput)
+                            .collect(toList());
+
+                    namespace.write(context, writeValues);
+                });
+            } catch (RejectedExecutionException e) {
+                StatusCode statusCode = new StatusCode(StatusCodes.Bad_ResourceUnavailable);
+
+                pending.forEach(p -> p.getFuture().complete(statusCode));
+            }
         });
 
         sequence(futures).thenAcceptAsync(values -> {
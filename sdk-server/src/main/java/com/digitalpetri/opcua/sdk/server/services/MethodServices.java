@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
@@ -31,9 +32,12 @@ import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.api.MethodServices.CallContext;
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
 import com.digitalpetri.opcua.sdk.server.util.PendingCall;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.MethodServiceSet;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.structured.CallMethodRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.CallMethodResult;
@@ -81,13 +85,21 @@ public class MethodServices implements MethodServiceSet {
 
             CallContext context = new CallContext(server, session, diagnosticsContext);
 
-            server.getExecutorService().execute(() -> namespace.call(context, requests));
-
             context.getFuture().thenAccept(values -> {
                 for (int i = 0; i < values.size(); i++) {
                     pending.get(i).getFuture().complete(values.get(i));
                 }
             });
+
+            try {
+                server.getNamespaceManager().getExecutor(index).execute(() -> namespace.call(context, requests));
+            } catch (RejectedExecutionException e) {
+                CallMethodResult result = new CallMethodResult(
+                        new StatusCode(StatusCodes.Bad_ResourceUnavailable),
+                        new StatusCode[0], new DiagnosticInfo[0], new Variant[0]);
+
+                pending.forEach(p -> p.getFuture().complete(result));
+            }
         });
 
         /*
@@ -26,6 +26,7 @@ import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.Session;
 import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription;
+import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription.State;
 import com.digitalpetri.opcua.sdk.server.subscriptions.SubscriptionManager;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
@@ -116,26 +117,46 @@ public class SubscriptionServices implements SubscriptionServiceSet {
                 if (!sessionsHaveSameUser(session, otherSession)) {
                     results.add(new TransferResult(new StatusCode(StatusCodes.Bad_UserAccessDenied), new UInteger[0]));
                 } else {
-                    UInteger[] availableSequenceNumbers;
+                    UInteger[] availableSequenceNumbers = null;
 
                     synchronized (subscription) {
-                        otherSession.getSubscriptionManager().sendStatusChangeNotification(subscription);
-                        otherSession.getSubscriptionManager().removeSubscription(subscriptionId);
+                        boolean orphaned = server.getOrphanedSubscriptions().claim(subscriptionId) != null;
 
-                        subscription.setSubscriptionManager(session.getSubscriptionManager());
-                        subscriptionManager.addSubscription(subscription);
+                        // an orphan's session is gone, there's no one to send a status change to. Anything else
+                        // must still be live; it may have been deleted while we waited for it.
+                        boolean live = !orphaned && server.getSubscriptions().get(subscriptionId) == subscription;
 
-                        availableSequenceNumbers = subscription.getAvailableSequenceNumbers();
+                        if (live) {
+                            otherSession.getSubscriptionManager().sendStatusChangeNotification(subscription);
+                            otherSession.getSubscriptionManager().removeSubscription(subscriptionId);
+                        }
+
+                        if (orphaned || live) {
+                            subscription.setSubscriptionManager(session.getSubscriptionManager());
+                            subscriptionManager.addSubscription(subscription);
+
+                            availableSequenceNumbers = subscription.getAvailableSequenceNumbers();
 
-                        if (request.getSendInitialValues()) {
-                            subscription.getMonitoredItems().values().stream()
-                                    .filter(item -> item instanceof MonitoredDataItem)
-                                    .map(item -> (MonitoredDataItem) item)
-                                    .forEach(MonitoredDataItem::clearLastValue);
+                            if (request.getSendInitialValues()) {
+                                subscription.getMonitoredItems().values().stream()
+                                        .filter(item -> item instanceof MonitoredDataItem)
+                                        .map(item -> (MonitoredDataItem) item)
+                                        .forEach(MonitoredDataItem::clearLastValue);
+                            }
+
+                            // it went late waiting on the old session's publish queue; wait on ours instead.
+                            if (orphaned && subscription.getState() == State.Late) {
+                                subscriptionManager.getPublishQueue().addSubscription(subscription);
+                            }
                         }
                     }
 
-                    results.add(new TransferResult(StatusCode.GOOD, availableSequenceNumbers));
+                    if (availableSequenceNumbers != null) {
+                        results.add(new TransferResult(StatusCode.GOOD, availableSequenceNumbers));
+                    } else {
+                        results.add(new TransferResult(
+                                new StatusCode(StatusCodes.Bad_SubscriptionIdInvalid), new UInteger[0]));
+                    }
                 }
             }
         }
@@ -22,6 +22,7 @@ package com.digitalpetri.opcua.sdk.server.services;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.NamespaceManager;
@@ -46,6 +47,7 @@ import com.digitalpetri.opcua.stack.core.types.structured.BrowseNextResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.BrowseRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.BrowseResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.BrowseResult;
+import com.digitalpetri.opcua.stack.core.types.structured.ReferenceDescription;
 import com.digitalpetri.opcua.stack.core.types.structured.RegisterNodesRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.RegisterNodesResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.ResponseHeader;
@@ -103,25 +105,32 @@ public class ViewServices implements ViewServiceSet {
 
             BrowseContext context = new BrowseContext(server, session, diagnosticsContext);
 
-            server.getExecutorService().execute(() -> {
-                Namespace namespace = server.getNamespaceManager().getNamespace(index);
-
-                List<BrowseDescription> browseDescriptions = pending.stream()
-                        .map(PendingBrowse::getInput)
-                        .collect(toList());
-
-                namespace.browse(
-                        context,
-                        request.getView(),
-                        request.getRequestedMaxReferencesPerNode(),
-                        browseDescriptions);
-            });
-
             context.getFuture().thenAccept(results -> {
                 for (int i = 0; i < results.size(); i++) {
                     pending.get(i).getFuture().complete(results.get(i));
                 }
             });
+
+            try {
+                server.getNamespaceManager().getExecutor(index).execute(() -> {
+                    Namespace namespace = server.getNamespaceManager().getNamespace(index);
+
+                    List<BrowseDescription> browseDescriptions = pending.stream()
+                            .map(PendingBrowse::getInput)
+                            .collect(toList());
+
+                    namespace.browse(
+                            context,
+                            request.getView(),
+                            request.getRequestedMaxReferencesPerNode(),
+                            browseDescriptions);
+                });
+            } catch (RejectedExecutionException e) {
+                BrowseResult result = new BrowseResult(
+                        new StatusCode(StatusCodes.Bad_ResourceUnavailable), null, new ReferenceDescription[0]);
+
+                pending.forEach(p -> p.getFuture().complete(result));
+            }
         });
 
         sequence(futures).thenAcceptAsync(results -> {
@@ -0,0 +1,123 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.google.common.collect.PeekingIterator;
+
+/**
+ * Fills NotificationMessages from a sequence of items, bounded by a notification count and by the estimated encoded
+ * size of the notifications.
+ * <p>
+ * While a size limit applies, items are drained one notification at a time and every notification is measured before
+ * it's counted, since one item's queue may hold a few bytes and the next's megabytes. A notification that would take a
+ * non-empty message over the limit is held back and starts the next message instead; only a notification that's too
+ * large on its own is sent in a message over the limit.
+ * <p>
+ * Not thread safe; {@link Subscription} guards it with its own monitor.
+ *
+ * @param <T> the item type.
+ */
+class NotificationPacker<T> {
+
+    interface Source<T> {
+        /**
+         * Move up to {@code max} of {@code item}'s notifications into {@code notifications}.
+         *
+         * @return {@code true} if {@code item} has no notifications left.
+         */
+        boolean getNotifications(T item, List<UaStructure> notifications, int max);
+    }
+
+    private UaStructure heldBack;
+    private long heldBackSize;
+
+    private final Source<T> source;
+    private final ToLongFunction<UaStructure> estimator;
+
+    NotificationPacker(Source<T> source, ToLongFunction<UaStructure> estimator) {
+        this.source = source;
+        this.estimator = estimator;
+    }
+
+    /**
+     * Gather one message's worth of notifications into {@code notifications}, starting with any held back from the
+     * previous message. {@code iterator} is advanced past every item that was drained.
+     *
+     * @param iterator         the items to gather from.
+     * @param notifications    the list to gather into; expected to be empty.
+     * @param maxNotifications the maximum number of notifications in the message.
+     * @param maxBytes         the maximum estimated size of the notifications, or {@link Long#MAX_VALUE} for none.
+     */
+    void pack(PeekingIterator<T> iterator, List<UaStructure> notifications, int maxNotifications, long maxBytes) {
+        long bytes = 0L;
+
+        if (heldBack != null) {
+            notifications.add(heldBack);
+            bytes = heldBackSize;
+
+            heldBack = null;
+            heldBackSize = 0L;
+        }
+
+        while (notifications.size() < maxNotifications && bytes < maxBytes && iterator.hasNext()) {
+            T item = iterator.peek();
+
+            if (maxBytes == Long.MAX_VALUE) {
+                if (source.getNotifications(item, notifications, maxNotifications - notifications.size())) {
+                    iterator.next();
+                }
+                continue;
+            }
+
+            int position = notifications.size();
+            boolean drained = source.getNotifications(item, notifications, 1);
+
+            if (drained) iterator.next();
+
+            if (notifications.size() > position) {
+                UaStructure notification = notifications.get(position);
+                long size = estimator.applyAsLong(notification);
+
+                if (position > 0 && bytes + size > maxBytes) {
+                    notifications.remove(position);
+
+                    heldBack = notification;
+                    heldBackSize = size;
+
+                    break;
+                }
+
+                bytes += size;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if a notification was held back for the next message.
+     */
+    boolean hasHeldBack() {
+        return heldBack != null;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.lang.reflect.Array;
+import java.util.UUID;
+
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.EventFieldList;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+
+/**
+ * Cheap estimates of the binary-encoded size of the notifications that go into a NotificationMessage.
+ * <p>
+ * Estimates err on the large side for strings (worst case UTF-8) and fall back to a fixed guess for types that are
+ * not worth walking; they are meant for packing decisions, not exact accounting.
+ */
+final class NotificationSizeEstimator {
+
+    /**
+     * Guess used for values whose size isn't worth estimating precisely (NodeIds, DiagnosticInfos, ...).
+     */
+    private static final int DEFAULT_SIZE = 32;
+
+    private NotificationSizeEstimator() {}
+
+    static long estimate(UaStructure notification) {
+        if (notification instanceof MonitoredItemNotification) {
+            return estimate((MonitoredItemNotification) notification);
+        } else if (notification instanceof EventFieldList) {
+            return estimate((EventFieldList) notification);
+        } else {
+            return DEFAULT_SIZE;
+        }
+    }
+
+    static long estimate(MonitoredItemNotification notification) {
+        return 4 + estimate(notification.getValue());
+    }
+
+    static long estimate(EventFieldList notification) {
+        long size = 4 + 4;
+
+        Variant[] fields = notification.getEventFields();
+
+        if (fields != null) {
+            for (Variant field : fields) {
+                size += estimate(field);
+            }
+        }
+
+        return size;
+    }
+
+    static long estimate(DataValue value) {
+        if (value == null) return 1;
+
+        // encoding mask, status code, source and server timestamps and picoseconds.
+        return 1 + 4 + 8 + 2 + 8 + 2 + estimate(value.getValue());
+    }
+
+    static long estimate(Variant variant) {
+        return variant != null ? 1 + estimateValue(variant.getValue()) : 1;
+    }
+
+    private static long estimateValue(Object value) {
+        if (value == null) return 0;
+
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            long size = 4;
+
+            for (int i = 0; i < length; i++) {
+                size += estimateValue(Array.get(value, i));
+            }
+
+            return size;
+        }
+
+        if (value instanceof Boolean || value instanceof Byte) return 1;
+        if (value instanceof Short) return 2;
+        if (value instanceof Integer || value instanceof Float) return 4;
+        if (value instanceof Long || value instanceof Double) return 8;
+        if (value instanceof Number) return 8;
+        if (value instanceof String) return 4 + 3L * ((String) value).length();
+        if (value instanceof ByteString) return 4 + Math.max(((ByteString) value).length(), 0);
+        if (value instanceof UUID) return 16;
+        if (value instanceof Variant) return estimate((Variant) value);
+        if (value instanceof DataValue) return estimate((DataValue) value);
+
+        if (value instanceof LocalizedText) {
+            LocalizedText text = (LocalizedText) value;
+
+            return 1 + estimateValue(text.getLocale()) + estimateValue(text.getText());
+        }
+
+        if (value instanceof QualifiedName) {
+            return 2 + estimateValue(((QualifiedName) value).getName());
+        }
+
+        if (value instanceof ExtensionObject) {
+            Object encoded = ((ExtensionObject) value).getEncoded();
+
+            if (encoded instanceof ByteString) {
+                return DEFAULT_SIZE + Math.max(((ByteString) encoded).length(), 0);
+            }
+        }
+
+        return DEFAULT_SIZE;
+    }
+
+}
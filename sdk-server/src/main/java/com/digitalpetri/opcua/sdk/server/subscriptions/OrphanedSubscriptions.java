@@ -0,0 +1,206 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription.State;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.google.common.math.DoubleMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.math.RoundingMode.UP;
+
+/**
+ * Subscriptions whose session closed without deleting them, or timed out.
+ * <p>
+ * An orphaned subscription keeps its monitored items sampling into their queues until its retention window or its
+ * lifetime runs out, whichever is first, or until it's reattached to a new session of the same user with
+ * TransferSubscriptions. While orphaned, its retransmission and item queues are accounted against the server-wide
+ * budgets only. The number retained is capped per user identity and server-wide; when the per-user cap is reached
+ * the user's oldest orphan is deleted to make room, and when the server-wide cap is reached the oldest orphan of any
+ * user is.
+ * <p>
+ * Lock order is subscription, then this registry. No two subscription monitors are ever held at once: orphans evicted
+ * to make room are handed back to the caller of {@link #retain(Subscription, Object, List)}, which deletes them with
+ * {@link #deleteEvicted(List)} once it has released the monitor of the subscription it orphaned.
+ */
+public class OrphanedSubscriptions {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Orphans<UInteger, Subscription> orphans = new Orphans<>();
+
+    /**
+     * Deletes orphans whose retention window has elapsed; scheduled for the earliest expiry while any are retained.
+     */
+    private ScheduledFuture<?> sweep;
+
+    private final OpcUaServer server;
+
+    public OrphanedSubscriptions(OpcUaServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Retain {@code subscription}, whose session is closing, so it can be reattached later.
+     * <p>
+     * Must be called while holding the subscription's monitor. Orphans evicted to make room are already removed from
+     * this registry and the server, and are added to {@code evicted}; the caller must pass them to
+     * {@link #deleteEvicted(List)} after releasing the monitor.
+     *
+     * @param subscription the subscription being orphaned.
+     * @param identity     the identity of the user the subscription's session was activated with.
+     * @param evicted      receives the orphans evicted to make room for {@code subscription}.
+     * @return {@code true} if it was retained, {@code false} if retention is disabled and the caller should delete it.
+     */
+    boolean retain(Subscription subscription, @Nullable Object identity, List<Subscription> evicted) {
+        OpcUaServerConfigLimits limits = server.getConfig().getLimits();
+
+        long retention = DoubleMath.roundToLong(limits.getOrphanedSubscriptionRetention(), UP);
+        int maxPerUser = limits.getMaxOrphanedSubscriptionsPerUser();
+        int max = limits.getMaxOrphanedSubscriptions();
+
+        if (retention <= 0 || maxPerUser <= 0 || max <= 0) return false;
+
+        // the session's own budgets go away with it.
+        subscription.setBudgets(server.getRetransmissionBudget(), server.getQueueBudget());
+
+        UInteger subscriptionId = subscription.getId();
+
+        synchronized (this) {
+            long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retention);
+
+            List<Subscription> removed = orphans.add(subscriptionId, subscription, identity, expiresAt, maxPerUser, max);
+            removed.forEach(s -> server.getSubscriptions().remove(s.getId()));
+            evicted.addAll(removed);
+
+            scheduleSweep();
+        }
+
+        subscription.setStateListener((s, ps, cs) -> {
+            if (cs == State.Closing || cs == State.Closed) {
+                expire(s, "lifetime expired");
+            }
+        });
+
+        logger.debug("[id={}] subscription orphaned, retained for {}ms.", subscriptionId, retention);
+
+        return true;
+    }
+
+    /**
+     * Delete the orphans {@link #retain(Subscription, Object, List)} evicted.
+     * <p>
+     * Must not be called while holding any subscription's monitor.
+     *
+     * @param evicted the evicted subscriptions.
+     */
+    void deleteEvicted(List<Subscription> evicted) {
+        evicted.forEach(s -> delete(s, "evicted"));
+    }
+
+    /**
+     * Remove {@code subscriptionId} from this registry so it can be attached to a new session.
+     * <p>
+     * Must be called while holding the subscription's monitor.
+     *
+     * @param subscriptionId the id of the subscription to reattach.
+     * @return the orphaned {@link Subscription}, or {@code null} if it isn't orphaned.
+     */
+    @Nullable
+    public synchronized Subscription claim(UInteger subscriptionId) {
+        Subscription subscription = orphans.remove(subscriptionId);
+
+        if (subscription == null) return null;
+
+        subscription.setStateListener(null);
+
+        logger.debug("[id={}] orphaned subscription reattached.", subscriptionId);
+
+        return subscription;
+    }
+
+    /**
+     * @return the number of orphaned subscriptions currently retained.
+     */
+    public synchronized int size() {
+        return orphans.size();
+    }
+
+    private void expire(Subscription subscription, String reason) {
+        synchronized (subscription) {
+            synchronized (this) {
+                if (orphans.remove(subscription.getId()) == null) return;
+
+                server.getSubscriptions().remove(subscription.getId());
+            }
+
+            delete(subscription, reason);
+        }
+    }
+
+    private void sweep() {
+        List<Subscription> expired;
+
+        synchronized (this) {
+            expired = orphans.removeExpired(System.nanoTime());
+            expired.forEach(s -> server.getSubscriptions().remove(s.getId()));
+
+            scheduleSweep();
+        }
+
+        expired.forEach(s -> delete(s, "retention window elapsed"));
+    }
+
+    /**
+     * Must be called while holding this registry's monitor.
+     */
+    private void scheduleSweep() {
+        if (sweep != null) sweep.cancel(false);
+
+        if (orphans.isEmpty()) {
+            sweep = null;
+        } else {
+            long delay = Math.max(orphans.nextExpiry() - System.nanoTime(), 0L);
+
+            sweep = server.getScheduledExecutorService().schedule(this::sweep, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Delete {@code subscription}, already removed from this registry and the server.
+     */
+    private void delete(Subscription subscription, String reason) {
+        logger.debug("[id={}] orphaned subscription deleted, {}.", subscription.getId(), reason);
+
+        synchronized (subscription) {
+            subscription.setStateListener(null);
+            subscription.getSubscriptionManager().delete(subscription);
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The entries behind {@link OrphanedSubscriptions}, oldest first, with the identity each is capped under and the time
+ * it expires.
+ * <p>
+ * Not thread safe; {@link OrphanedSubscriptions} guards it with its own monitor.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ */
+class Orphans<K, V> {
+
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>();
+
+    /**
+     * Add {@code value}, first evicting the oldest entries of the same identity until fewer than
+     * {@code maxPerIdentity} remain, then the oldest entries of any identity until fewer than {@code max} remain.
+     *
+     * @param expiresAt the time, in nanoseconds, {@code value} expires at.
+     * @return the evicted values, oldest first.
+     */
+    List<V> add(K key, V value, @Nullable Object identity, long expiresAt, int maxPerIdentity, int max) {
+        entries.remove(key);
+
+        List<V> evicted = Lists.newArrayList();
+
+        int count = 0;
+        for (Entry<V> e : entries.values()) {
+            if (Objects.equals(e.identity, identity)) count++;
+        }
+
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+
+        while (count >= maxPerIdentity && iterator.hasNext()) {
+            Entry<V> e = iterator.next();
+
+            if (Objects.equals(e.identity, identity)) {
+                iterator.remove();
+                evicted.add(e.value);
+                count--;
+            }
+        }
+
+        iterator = entries.values().iterator();
+
+        while (entries.size() >= max && iterator.hasNext()) {
+            evicted.add(iterator.next().value);
+            iterator.remove();
+        }
+
+        entries.put(key, new Entry<>(value, identity, expiresAt));
+
+        return evicted;
+    }
+
+    @Nullable
+    V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Remove every entry that expires at or before {@code now}.
+     *
+     * @return the expired values, oldest first.
+     */
+    List<V> removeExpired(long now) {
+        List<V> expired = Lists.newArrayList();
+
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+
+        while (iterator.hasNext()) {
+            Entry<V> e = iterator.next();
+
+            if (e.expiresAt - now <= 0) {
+                iterator.remove();
+                expired.add(e.value);
+            }
+        }
+
+        return expired;
+    }
+
+    /**
+     * @return the earliest time, in nanoseconds, an entry expires at. Only meaningful when not empty.
+     */
+    long nextExpiry() {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+
+        long next = iterator.next().expiresAt;
+
+        while (iterator.hasNext()) {
+            long expiresAt = iterator.next().expiresAt;
+            if (expiresAt - next < 0) next = expiresAt;
+        }
+
+        return next;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final Object identity;
+        final long expiresAt;
+
+        Entry(V value, @Nullable Object identity, long expiresAt) {
+            this.value = value;
+            this.identity = identity;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One FIFO per priority level plus a bitmap of the non-empty levels, so the highest-priority waiter is found without
+ * scanning every level.
+ * <p>
+ * Each key may be waiting at most once. Not thread safe; {@link PublishQueue} guards it with its own monitor.
+ *
+ * @param <K> the key type.
+ * @param <V> the waiter type.
+ */
+class PriorityWaitList<K, V> {
+
+    static final int PRIORITY_LEVELS = 256;
+
+    @SuppressWarnings("unchecked")
+    private final LinkedHashMap<K, V>[] levels = new LinkedHashMap[PRIORITY_LEVELS];
+
+    /**
+     * Bit {@code n} is set when {@code levels[n]} is non-empty.
+     */
+    private final long[] nonEmptyLevels = new long[PRIORITY_LEVELS / 64];
+
+    private final Set<K> waiting = new HashSet<>();
+
+    PriorityWaitList() {
+        for (int i = 0; i < PRIORITY_LEVELS; i++) {
+            levels[i] = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Add {@code value} at {@code priority}, clamped to {@code [0, 255]}.
+     *
+     * @return {@code false} if {@code key} was already waiting, in which case nothing changes.
+     */
+    boolean add(K key, V value, int priority) {
+        int level = Math.max(0, Math.min(PRIORITY_LEVELS - 1, priority));
+
+        if (!waiting.add(key)) return false;
+
+        levels[level].put(key, value);
+        nonEmptyLevels[level >>> 6] |= (1L << (level & 63));
+
+        return true;
+    }
+
+    /**
+     * Remove and return the oldest waiter at the highest non-empty priority level.
+     *
+     * @return the next waiter, or {@code null} if none are waiting.
+     */
+    @Nullable
+    V poll() {
+        int level = highestNonEmptyLevel();
+        if (level < 0) return null;
+
+        LinkedHashMap<K, V> waitList = levels[level];
+
+        Iterator<Map.Entry<K, V>> iterator = waitList.entrySet().iterator();
+        Map.Entry<K, V> next = iterator.next();
+        iterator.remove();
+
+        if (waitList.isEmpty()) {
+            nonEmptyLevels[level >>> 6] &= ~(1L << (level & 63));
+        }
+
+        waiting.remove(next.getKey());
+
+        return next.getValue();
+    }
+
+    int size() {
+        return waiting.size();
+    }
+
+    boolean isEmpty() {
+        return waiting.isEmpty();
+    }
+
+    private int highestNonEmptyLevel() {
+        for (int i = nonEmptyLevels.length - 1; i >= 0; i--) {
+            long bits = nonEmptyLevels[i];
+
+            if (bits != 0L) {
+                return (i << 6) + (63 - Long.numberOfLeadingZeros(bits));
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -19,16 +19,12 @@
 
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
-import java.util.Date;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayDeque;
 
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.PublishResponse;
-import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,56 +32,39 @@ public class PublishQueue {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final LinkedList<ServiceRequest<PublishRequest, PublishResponse>> serviceQueue = new LinkedList<>();
+    private final ArrayDeque<ServiceRequest<PublishRequest, PublishResponse>> serviceQueue = new ArrayDeque<>();
 
-    private final LinkedHashMap<UInteger, WaitingSubscription> waitList = new LinkedHashMap<>();
+    private final PriorityWaitList<UInteger, Subscription> waitList = new PriorityWaitList<>();
 
     /**
      * Add a Publish {@link ServiceRequest} to the queue.
      * <p>
      * If there are wait-listed Subscriptions this request will be used immediately, otherwise it will be queued for
      * later use by a Subscription whose publish timer has expired and has notifications to send.
+     * <p>
+     * The wait-listed Subscription with the highest priority is chosen; Subscriptions with equal priority are chosen in
+     * the order they were wait-listed.
      *
      * @param service the Publish {@link ServiceRequest}.
      */
-    public synchronized void addRequest(ServiceRequest<PublishRequest, PublishResponse> service) {
-        List<WaitingSubscription> waitingSubscriptions = Lists.newArrayList(waitList.values());
-
-        if (waitingSubscriptions.isEmpty()) {
-            serviceQueue.add(service);
-
-            logger.debug("Queued PublishRequest, size={}", serviceQueue.size());
-        } else {
-            WaitingSubscription subscription = null;
-
-            int maxPriority = 0;
-            long minWaitingSince = Long.MAX_VALUE;
-
-            for (WaitingSubscription waiting : waitingSubscriptions) {
-                int priority = waiting.getSubscription().getPriority();
-                long waitingSince = waiting.getWaitingSince().getTime();
-
-                if (priority > maxPriority) {
-                    maxPriority = priority;
-                    minWaitingSince = Long.MAX_VALUE;
-                }
-                if (priority >= maxPriority && waitingSince < minWaitingSince) {
-                    minWaitingSince = waitingSince;
-                    subscription = waiting;
-                }
-            }
+    public void addRequest(ServiceRequest<PublishRequest, PublishResponse> service) {
+        Subscription subscription;
 
-            if (subscription != null) {
-                waitList.remove(subscription.subscription.getId());
+        synchronized (this) {
+            subscription = waitList.poll();
 
-                logger.debug("Delivering PublishRequest to Subscription [id={}]",
-                        subscription.getSubscription().getId());
-
-                subscription.subscription.onPublish(service);
-            } else {
+            if (subscription == null) {
                 serviceQueue.add(service);
+
+                logger.debug("Queued PublishRequest, size={}", serviceQueue.size());
+
+                return;
             }
         }
+
+        logger.debug("Delivering PublishRequest to Subscription [id={}]", subscription.getId());
+
+        subscription.onPublish(service);
     }
 
     /**
@@ -101,12 +80,20 @@ public class PublishQueue {
      *
      * @param subscription the subscription to wait-list.
      */
-    public synchronized void addSubscription(Subscription subscription) {
-        if (waitList.isEmpty() && !serviceQueue.isEmpty()) {
-            subscription.onPublish(serviceQueue.poll());
-        } else {
-            waitList.putIfAbsent(subscription.getId(), new WaitingSubscription(subscription));
+    public void addSubscription(Subscription subscription) {
+        ServiceRequest<PublishRequest, PublishResponse> service;
+
+        synchronized (this) {
+            if (waitList.isEmpty() && !serviceQueue.isEmpty()) {
+                service = serviceQueue.poll();
+            } else {
+                waitList.add(subscription.getId(), subscription, subscription.getPriority());
+
+                return;
+            }
         }
+
+        subscription.onPublish(service);
     }
 
     public synchronized boolean isEmpty() {
@@ -121,24 +108,18 @@ public class PublishQueue {
         return serviceQueue.poll();
     }
 
-    public static class WaitingSubscription {
-
-        private final Date waitingSince = new Date();
-
-        private final Subscription subscription;
-
-        public WaitingSubscription(Subscription subscription) {
-            this.subscription = subscription;
-        }
-
-        public Subscription getSubscription() {
-            return subscription;
-        }
-
-        public Date getWaitingSince() {
-            return waitingSince;
-        }
+    /**
+     * @return the number of queued Publish requests.
+     */
+    public synchronized int size() {
+        return serviceQueue.size();
+    }
 
+    /**
+     * @return the number of wait-listed Subscriptions.
+     */
+    public synchronized int getWaitingCount() {
+        return waitList.size();
     }
 
 }
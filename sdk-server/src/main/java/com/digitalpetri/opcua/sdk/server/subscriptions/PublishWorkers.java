@@ -0,0 +1,137 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed set of single-threaded workers that run the publishing work of every {@link Subscription} on the server.
+ * <p>
+ * Each Subscription is pinned to one shard for its lifetime, so its Publish and publishing timer handling always runs
+ * on the same thread, one task at a time.
+ */
+public class PublishWorkers {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Shard[] shards;
+
+    public PublishWorkers(int shardCount) {
+        shards = new Shard[Math.max(shardCount, 1)];
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * @param subscriptionId the id of the {@link Subscription}.
+     * @return the {@link Executor} for the shard {@code subscriptionId} is pinned to.
+     */
+    public Executor getShard(UInteger subscriptionId) {
+        return shards[shardIndex(subscriptionId)];
+    }
+
+    /**
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param shard the shard index.
+     * @return the number of tasks currently queued on {@code shard}.
+     */
+    public int getQueueDepth(int shard) {
+        return shards[shard].executor.getQueue().size();
+    }
+
+    /**
+     * @param shard the shard index.
+     * @return the largest number of tasks that have been queued on {@code shard} at once.
+     */
+    public int getMaxQueueDepth(int shard) {
+        return shards[shard].maxQueueDepth.get();
+    }
+
+    /**
+     * @param shard the shard index.
+     * @return the number of tasks {@code shard} has completed.
+     */
+    public long getCompletedTaskCount(int shard) {
+        return shards[shard].executor.getCompletedTaskCount();
+    }
+
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+    }
+
+    private int shardIndex(UInteger subscriptionId) {
+        return (int) (subscriptionId.longValue() % shards.length);
+    }
+
+    private class Shard implements Executor {
+
+        private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+
+        private final ThreadPoolExecutor executor;
+
+        private Shard(int index) {
+            executor = new ThreadPoolExecutor(
+                    1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("ua-publish-worker-" + index)
+                            .setDaemon(true).build());
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(() -> {
+                try {
+                    command.run();
+                } catch (Throwable t) {
+                    logger.error("Error running publish task.", t);
+                }
+            });
+
+            int depth = executor.getQueue().size();
+            int max = maxQueueDepth.get();
+
+            while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+                max = maxQueueDepth.get();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,325 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.digitalpetri.opcua.sdk.server.util.MemoryBudget;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.structured.NotificationMessage;
+
+/**
+ * The bounded set of {@link NotificationMessage}s a {@link Subscription} keeps available for Republish until they are
+ * acknowledged.
+ * <p>
+ * Messages are kept in sequence number order. When either the message limit or the {@link MemoryBudget} would be
+ * exceeded the oldest messages are evicted first. The newest {@code minMessages} messages are always retained, even
+ * when the shared budget has been exhausted by other subscriptions; they are not charged to the budget.
+ * <p>
+ * The notification bodies of a message are already binary-encoded ExtensionObjects when it is added, so Republish and
+ * transfers re-send the same bytes without re-encoding.
+ * <p>
+ * Thread safe; messages are added by the owning {@link Subscription}'s publish worker while acknowledgements and
+ * Republish requests arrive on service threads.
+ */
+public class RetransmissionQueue {
+
+    /**
+     * Estimated fixed overhead of a NotificationMessage: sequence number, publish time, array length.
+     */
+    private static final int MESSAGE_OVERHEAD = 16;
+
+    /**
+     * Estimated overhead of each ExtensionObject: encoding id and body length.
+     */
+    private static final int NOTIFICATION_OVERHEAD = 16;
+
+    private static final UInteger[] EMPTY = new UInteger[0];
+
+    private final LinkedHashMap<UInteger, Entry> messages = new LinkedHashMap<>();
+
+    /**
+     * The sequence numbers of {@code messages}, in order, kept in a ring so adds and evictions are O(1).
+     */
+    private UInteger[] sequenceNumbers;
+    private int head = 0;
+
+    private UInteger[] available = EMPTY;
+    private boolean availableValid = true;
+
+    private final int maxMessages;
+    private final int minMessages;
+    private MemoryBudget budget;
+
+    public RetransmissionQueue(int maxMessages, MemoryBudget budget) {
+        this(maxMessages, 0, budget);
+    }
+
+    public RetransmissionQueue(int maxMessages, int minMessages, MemoryBudget budget) {
+        this.maxMessages = Math.max(maxMessages, 1);
+        this.minMessages = Math.max(0, Math.min(minMessages, this.maxMessages));
+        this.budget = budget;
+
+        sequenceNumbers = new UInteger[Math.min(this.maxMessages, 16)];
+    }
+
+    /**
+     * Add a {@link NotificationMessage}, evicting older messages if necessary.
+     * <p>
+     * If the message does not fit in the budget once older messages beyond the guaranteed minimum have been evicted
+     * it is retained without a reservation as long as fewer than {@code minMessages} messages are held, and is
+     * otherwise dropped.
+     *
+     * @param message the {@link NotificationMessage} to add.
+     */
+    public synchronized void add(NotificationMessage message) {
+        long size = estimateSize(message);
+
+        while (messages.size() >= maxMessages) {
+            evictOldest();
+        }
+
+        boolean reserved = budget.tryReserve(size);
+
+        while (!reserved && messages.size() >= minMessages && !messages.isEmpty()) {
+            evictOldest();
+            reserved = budget.tryReserve(size);
+        }
+
+        if (!reserved && messages.size() >= minMessages) return;
+
+        Entry entry = new Entry(message, size);
+
+        if (!reserved) entry.reservation = 0L;
+
+        messages.put(message.getSequenceNumber(), entry);
+        append(message.getSequenceNumber());
+    }
+
+    /**
+     * @param sequenceNumber the sequence number of the message to get.
+     * @return the {@link NotificationMessage} for {@code sequenceNumber}, or {@code null} if not available.
+     */
+    public synchronized NotificationMessage get(UInteger sequenceNumber) {
+        Entry entry = messages.get(sequenceNumber);
+
+        return entry != null ? entry.message : null;
+    }
+
+    /**
+     * @param sequenceNumber the sequence number of the message to remove.
+     * @return {@code true} if the message was available and has been removed.
+     */
+    public synchronized boolean remove(UInteger sequenceNumber) {
+        Entry entry = messages.remove(sequenceNumber);
+
+        if (entry != null) {
+            budget.release(entry.reservation);
+            removeSequenceNumber(sequenceNumber);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Remove all messages and release their memory.
+     */
+    public synchronized void clear() {
+        messages.values().forEach(entry -> budget.release(entry.reservation));
+        messages.clear();
+
+        Arrays.fill(sequenceNumbers, null);
+        head = 0;
+
+        available = EMPTY;
+        availableValid = true;
+    }
+
+    /**
+     * Move all reserved memory from the current budget to {@code budget}, evicting messages that no longer fit.
+     * <p>
+     * The newest {@code minMessages} messages are kept regardless; any of them that do not fit are held without a
+     * reservation.
+     *
+     * @param budget the new {@link MemoryBudget}.
+     */
+    public synchronized void setBudget(MemoryBudget budget) {
+        MemoryBudget previous = this.budget;
+        this.budget = budget;
+
+        int remaining = messages.size();
+        Iterator<Map.Entry<UInteger, Entry>> iterator = messages.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<UInteger, Entry> e = iterator.next();
+            Entry entry = e.getValue();
+
+            previous.release(entry.reservation);
+
+            long size = entry.size;
+
+            if (budget.tryReserve(size)) {
+                entry.reservation = size;
+            } else if (remaining <= minMessages) {
+                entry.reservation = 0L;
+            } else {
+                iterator.remove();
+                removeSequenceNumber(e.getKey());
+            }
+
+            remaining--;
+        }
+    }
+
+    /**
+     * @return the available sequence numbers, in ascending order. The returned array must not be modified.
+     */
+    public synchronized UInteger[] getAvailableSequenceNumbers() {
+        if (!availableValid) {
+            int count = messages.size();
+            UInteger[] a = new UInteger[count];
+
+            int first = Math.min(count, sequenceNumbers.length - head);
+            System.arraycopy(sequenceNumbers, head, a, 0, first);
+            System.arraycopy(sequenceNumbers, 0, a, first, count - first);
+
+            available = a;
+            availableValid = true;
+        }
+
+        return available;
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    private void evictOldest() {
+        Iterator<Entry> iterator = messages.values().iterator();
+
+        if (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+
+            budget.release(entry.reservation);
+
+            // The oldest message is always at the head of the ring.
+            sequenceNumbers[head] = null;
+            head = (head + 1) % sequenceNumbers.length;
+            availableValid = false;
+        }
+    }
+
+    /**
+     * Append {@code sequenceNumber} to the ring; {@code messages} already contains it.
+     */
+    private void append(UInteger sequenceNumber) {
+        int count = messages.size();
+
+        if (count > sequenceNumbers.length) {
+            UInteger[] grown = new UInteger[Math.min(sequenceNumbers.length * 2, maxMessages)];
+            int n = count - 1;
+            int first = Math.min(n, sequenceNumbers.length - head);
+            System.arraycopy(sequenceNumbers, head, grown, 0, first);
+            System.arraycopy(sequenceNumbers, 0, grown, first, n - first);
+            sequenceNumbers = grown;
+            head = 0;
+        }
+
+        sequenceNumbers[(head + count - 1) % sequenceNumbers.length] = sequenceNumber;
+        availableValid = false;
+    }
+
+    /**
+     * Remove {@code sequenceNumber} from the ring; {@code messages} no longer contains it.
+     * <p>
+     * Acknowledgements usually arrive for the oldest message, which is O(1); anything else shifts the tail.
+     */
+    private void removeSequenceNumber(UInteger sequenceNumber) {
+        int count = messages.size() + 1;
+        int length = sequenceNumbers.length;
+
+        if (sequenceNumber.equals(sequenceNumbers[head])) {
+            sequenceNumbers[head] = null;
+            head = (head + 1) % length;
+        } else {
+            for (int i = 1; i < count; i++) {
+                if (sequenceNumber.equals(sequenceNumbers[(head + i) % length])) {
+                    for (int j = i; j < count - 1; j++) {
+                        sequenceNumbers[(head + j) % length] = sequenceNumbers[(head + j + 1) % length];
+                    }
+                    sequenceNumbers[(head + count - 1) % length] = null;
+                    break;
+                }
+            }
+        }
+
+        availableValid = false;
+    }
+
+    static long estimateSize(NotificationMessage message) {
+        long size = MESSAGE_OVERHEAD;
+
+        ExtensionObject[] notificationData = message.getNotificationData();
+
+        if (notificationData != null) {
+            for (ExtensionObject xo : notificationData) {
+                size += NOTIFICATION_OVERHEAD;
+
+                Object encoded = xo.getEncoded();
+
+                if (encoded instanceof ByteString) {
+                    size += Math.max(0, ((ByteString) encoded).length());
+                }
+            }
+        }
+
+        return size;
+    }
+
+    private static final class Entry {
+
+        private final NotificationMessage message;
+        private final long size;
+
+        /**
+         * The number of bytes reserved from the budget; {@code 0} for a message held under the guaranteed minimum.
+         */
+        private long reservation;
+
+        private Entry(NotificationMessage message, long size) {
+            this.message = message;
+            this.size = size;
+            this.reservation = size;
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * The ladder of supported sample rates that revised sampling intervals are rounded to.
+ */
+final class SampleRates {
+
+    private final double[] rates;
+
+    /**
+     * @param rates the supported sampling intervals, in milliseconds; {@code null} or empty to sample at any interval.
+     */
+    SampleRates(@Nullable List<Double> rates) {
+        this.rates = rates != null ?
+                rates.stream().mapToDouble(Double::doubleValue).filter(r -> r > 0).sorted().distinct().toArray() :
+                new double[0];
+    }
+
+    /**
+     * Round {@code samplingInterval} up to the first supported rate that is neither faster than it nor faster than
+     * {@code floor}, so an item is never sampled faster than it asked to be. Intervals beyond the largest supported
+     * rate are rounded up to a multiple of it.
+     *
+     * @param samplingInterval the revised sampling interval, in milliseconds.
+     * @param floor            the fastest interval the item may be sampled at, in milliseconds.
+     * @return the quantized sampling interval, or {@code samplingInterval} if there's no ladder.
+     */
+    double quantize(double samplingInterval, double floor) {
+        if (rates.length == 0) return samplingInterval;
+
+        double target = Math.max(samplingInterval, floor);
+
+        for (double rate : rates) {
+            if (rate >= target) return rate;
+        }
+
+        double largest = rates[rates.length - 1];
+
+        return Math.ceil(target / largest) * largest;
+    }
+
+}
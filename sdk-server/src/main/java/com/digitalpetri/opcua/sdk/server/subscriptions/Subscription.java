@@ -20,19 +20,23 @@
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
 import java.math.RoundingMode;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import com.digitalpetri.opcua.sdk.server.Session;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
 import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.digitalpetri.opcua.sdk.server.util.EncodedDataValue;
+import com.digitalpetri.opcua.sdk.server.util.MemoryBudget;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
 import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
@@ -41,7 +45,6 @@ import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
 import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
 import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
-import com.digitalpetri.opcua.stack.core.types.structured.DataChangeNotification;
 import com.digitalpetri.opcua.stack.core.types.structured.EventFieldList;
 import com.digitalpetri.opcua.stack.core.types.structured.EventNotificationList;
 import com.digitalpetri.opcua.stack.core.types.structured.ModifySubscriptionRequest;
@@ -63,6 +66,18 @@ import org.slf4j.LoggerFactory;
 
 import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
 
+/**
+ * A Subscription and its publishing state machine.
+ * <p>
+ * All mutable state is guarded by the subscription's own monitor. Publish requests and publishing timer expirations
+ * are handed to the publish worker this subscription is pinned to, which processes them one at a time and holds the
+ * monitor while doing so. Service calls that change the subscription (modify, publishing mode, monitored items,
+ * transfer, delete) hold the same monitor, as does anything that needs a consistent view of it from outside, e.g.
+ * {@link OrphanedSubscriptions} or TransferSubscriptions via {@code synchronized (subscription)}.
+ * <p>
+ * While holding the monitor a subscription may lock its monitored items and its {@link PublishQueue}, never the
+ * reverse.
+ */
 public class Subscription {
 
     private static final double MIN_LIFETIME = 10 * 1000.0;
@@ -73,6 +88,12 @@ public class Subscription {
 
     private static final int MAX_NOTIFICATIONS = 0xFFFF;
 
+    /**
+     * Room left in each PublishResponse for everything but the notifications: response header, available sequence
+     * numbers, acknowledge results, and NotificationMessage framing.
+     */
+    private static final int PUBLISH_RESPONSE_OVERHEAD = 1024;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private volatile Iterator<BaseMonitoredItem<?>> lastIterator = Iterators.emptyIterator();
@@ -80,12 +101,29 @@ public class Subscription {
     private final AtomicLong itemIds = new AtomicLong(1L);
     private final Map<UInteger, BaseMonitoredItem<?>> itemsById = Maps.newConcurrentMap();
 
+    /**
+     * Items that have signalled they may have notifications to report. Filled by the items themselves, drained only
+     * by this subscription's publish worker.
+     */
+    private final Queue<BaseMonitoredItem<?>> readyItems = new ConcurrentLinkedQueue<>();
+
+    /*
+     * Reused for every NotificationMessage and cleared once it's encoded. Only touched on the publish worker, which
+     * holds this subscription's monitor while doing so.
+     */
+    private final List<UaStructure> gatherBuffer = Lists.newArrayList();
+    private final NotificationPacker<BaseMonitoredItem<?>> packer = new NotificationPacker<>(
+            (item, notifications, max) -> item.getNotifications(notifications, max),
+            NotificationSizeEstimator::estimate);
+    private final List<MonitoredItemNotification> dataNotifications = Lists.newArrayList();
+    private final List<EventFieldList> eventNotifications = Lists.newArrayList();
+
     private final AtomicReference<State> state = new AtomicReference<>(State.Normal);
     private final AtomicReference<StateListener> stateListener = new AtomicReference<>();
 
     private final AtomicLong sequenceNumber = new AtomicLong(1L);
 
-    private final Map<UInteger, NotificationMessage> availableMessages = Maps.newConcurrentMap();
+    private final RetransmissionQueue retransmissionQueue;
 
     private final PublishHandler publishHandler = new PublishHandler();
     private final TimerHandler timerHandler = new TimerHandler();
@@ -95,6 +133,11 @@ public class Subscription {
     private volatile long keepAliveCounter;
     private volatile long lifetimeCounter;
 
+    /**
+     * When, in {@link System#nanoTime()}, the publishing timer is next due.
+     */
+    private volatile long publishingTimerDue;
+
     private volatile double publishingInterval;
     private volatile long lifetimeCount;
     private volatile long maxKeepAliveCount;
@@ -106,6 +149,17 @@ public class Subscription {
 
     private final UInteger subscriptionId;
 
+    /**
+     * The estimated encoded size, in bytes, that the notifications in a single NotificationMessage may not exceed.
+     */
+    private final long maxNotificationBytes;
+
+    /**
+     * The publish worker this subscription is pinned to. Publish requests and publishing timer expirations are handled
+     * on it one at a time, under this subscription's monitor.
+     */
+    private final Executor publishWorker;
+
     public Subscription(SubscriptionManager subscriptionManager,
                         UInteger subscriptionId,
                         double publishingInterval,
@@ -118,6 +172,22 @@ public class Subscription {
         this.subscriptionManager = subscriptionManager;
         this.subscriptionId = subscriptionId;
 
+        publishWorker = subscriptionManager.getServer().getPublishWorkers().getShard(subscriptionId);
+
+        OpcUaServerConfigLimits limits = subscriptionManager.getServer().getConfig().getLimits();
+
+        int maxMessageSize = subscriptionManager.getServer().getChannelConfig().getMaxMessageSize();
+
+        maxNotificationBytes = maxMessageSize > 0 ?
+                Math.max((long) (maxMessageSize * limits.getNotificationMessageSizeFraction()) -
+                        PUBLISH_RESPONSE_OVERHEAD, 1L) :
+                Long.MAX_VALUE;
+
+        retransmissionQueue = new RetransmissionQueue(
+                limits.getMaxRetransmissionQueueSize().intValue(),
+                limits.getMinRetransmissionQueueSize().intValue(),
+                subscriptionManager.getRetransmissionBudget());
+
         setPublishingInterval(publishingInterval);
         setMaxKeepAliveCount(maxKeepAliveCount);
         setLifetimeCount(lifetimeCount);
@@ -141,6 +211,8 @@ public class Subscription {
 
         this.priority = request.getPriority().intValue();
 
+        itemsById.values().forEach(item -> item.setPriority(priority));
+
         resetLifetimeCounter();
 
         logger.debug("[id={}] subscription modified, interval={}, keep-alive={}, lifetime={}",
@@ -150,6 +222,8 @@ public class Subscription {
     public synchronized List<BaseMonitoredItem<?>> deleteSubscription() {
         setState(State.Closed);
 
+        itemsById.values().forEach(BaseMonitoredItem::releaseQueueMemory);
+
         logger.debug("[id={}] subscription deleted.", subscriptionId);
 
         return Lists.newArrayList(itemsById.values());
@@ -166,6 +240,10 @@ public class Subscription {
     public synchronized void addMonitoredItems(List<BaseMonitoredItem<?>> createdItems) {
         for (BaseMonitoredItem<?> item : createdItems) {
             itemsById.put(item.getId(), item);
+
+            item.setPriority(priority);
+            item.setReadyListener(readyItems::add);
+            item.resetReady();
         }
 
         resetLifetimeCounter();
@@ -176,6 +254,9 @@ public class Subscription {
     public synchronized void removeMonitoredItems(List<BaseMonitoredItem<?>> deletedItems) {
         for (BaseMonitoredItem<?> item : deletedItems) {
             itemsById.remove(item.getId());
+
+            item.setReadyListener(null);
+            item.releaseQueueMemory();
         }
 
         resetLifetimeCounter();
@@ -285,7 +366,7 @@ public class Subscription {
         this.maxNotificationsPerPublish = Ints.saturatedCast(maxNotificationsPerPublish);
     }
 
-    private synchronized PublishQueue publishQueue() {
+    private PublishQueue publishQueue() {
         return subscriptionManager.getPublishQueue();
     }
 
@@ -297,7 +378,7 @@ public class Subscription {
         return sequenceNumber.getAndIncrement();
     }
 
-    void resetLifetimeCounter() {
+    synchronized void resetLifetimeCounter() {
         lifetimeCounter = lifetimeCount;
 
         logger.debug("[id={}] lifetime counter reset to {}", subscriptionId, lifetimeCounter);
@@ -333,7 +414,7 @@ public class Subscription {
                 subscriptionId, sequenceNumber);
     }
 
-    void returnStatusChangeNotification(ServiceRequest<PublishRequest, PublishResponse> service) {
+    synchronized void returnStatusChangeNotification(ServiceRequest<PublishRequest, PublishResponse> service) {
         StatusChangeNotification statusChange = new StatusChangeNotification(
                 new StatusCode(StatusCodes.Bad_Timeout), null);
 
@@ -362,88 +443,90 @@ public class Subscription {
 
         lastIterator.forEachRemaining(items::add);
 
-        itemsById.values().stream()
-                .filter(item -> item.hasNotifications() || item.isTriggered())
-                .forEach(items::add);
+        BaseMonitoredItem<?> item;
+        while ((item = readyItems.poll()) != null) {
+            if (itemsById.get(item.getId()) != item) continue;
+
+            if (item.isReportable()) {
+                items.add(item);
+            } else {
+                item.resetReady();
+            }
+        }
 
         PeekingIterator<BaseMonitoredItem<?>> iterator = Iterators.peekingIterator(items.iterator());
 
-        gatherAndSend(iterator, Optional.of(service));
+        gatherAndSend(iterator, service);
 
         lastIterator = iterator.hasNext() ? iterator : Iterators.emptyIterator();
     }
 
     /**
-     * Gather {@link MonitoredItemNotification}s and send them using {@code service}, if present.
+     * Gather {@link MonitoredItemNotification}s and send them using {@code service}, then keep draining the backlog
+     * into queued {@link PublishRequest}s until either runs out.
+     * <p>
+     * Each NotificationMessage is limited both by {@code maxNotificationsPerPublish} and by the estimated encoded size
+     * of its notifications, so large values are spread over several well-sized messages; see
+     * {@link NotificationPacker}.
      *
      * @param iterator a {@link PeekingIterator} over the current {@link BaseMonitoredItem}s.
-     * @param service  a {@link ServiceRequest}, if available.
+     * @param service  the {@link ServiceRequest} to send the first NotificationMessage with.
      */
     private void gatherAndSend(PeekingIterator<BaseMonitoredItem<?>> iterator,
-                               Optional<ServiceRequest<PublishRequest, PublishResponse>> service) {
+                               ServiceRequest<PublishRequest, PublishResponse> service) {
 
-        if (service.isPresent()) {
-            List<UaStructure> notifications = Lists.newArrayList();
+        while (service != null) {
+            List<UaStructure> notifications = gatherBuffer;
 
-            while (notifications.size() < maxNotificationsPerPublish && iterator.hasNext()) {
-                BaseMonitoredItem<?> item = iterator.peek();
+            packer.pack(iterator, notifications, maxNotificationsPerPublish, maxNotificationBytes);
 
-                boolean gatheredAllForItem = gather(item, notifications, maxNotificationsPerPublish);
+            moreNotifications = iterator.hasNext() || packer.hasHeldBack();
 
-                if (gatheredAllForItem && iterator.hasNext()) {
-                    iterator.next();
-                }
+            try {
+                sendNotifications(service, notifications);
+            } finally {
+                notifications.clear();
             }
 
-            moreNotifications = iterator.hasNext();
-
-            sendNotifications(service.get(), notifications);
-
-            if (moreNotifications) {
-                gatherAndSend(iterator, Optional.ofNullable(publishQueue().poll()));
-            }
-        } else {
-            if (moreNotifications) {
-                publishQueue().addSubscription(this);
-            }
+            service = moreNotifications ? publishQueue().poll() : null;
         }
-    }
-
-    private boolean gather(BaseMonitoredItem<?> item, List<UaStructure> notifications, int maxNotifications) {
-        int max = maxNotifications - notifications.size();
 
-        return item.getNotifications(notifications, max);
+        if (moreNotifications) {
+            publishQueue().addSubscription(this);
+        }
     }
 
     private void sendNotifications(ServiceRequest<PublishRequest, PublishResponse> service,
                                    List<UaStructure> notifications) {
 
-        List<MonitoredItemNotification> dataNotifications = Lists.newArrayList();
-        List<EventFieldList> eventNotifications = Lists.newArrayList();
+        List<ExtensionObject> notificationData = Lists.newArrayListWithCapacity(2);
+        int dataCount, eventCount;
 
-        notifications.forEach(notification -> {
-            if (notification instanceof MonitoredItemNotification) {
-                dataNotifications.add((MonitoredItemNotification) notification);
-            } else if (notification instanceof EventFieldList) {
-                eventNotifications.add((EventFieldList) notification);
+        try {
+            for (UaStructure notification : notifications) {
+                if (notification instanceof MonitoredItemNotification) {
+                    dataNotifications.add((MonitoredItemNotification) notification);
+                } else if (notification instanceof EventFieldList) {
+                    eventNotifications.add((EventFieldList) notification);
+                }
             }
-        });
 
-        List<ExtensionObject> notificationData = Lists.newArrayList();
+            dataCount = dataNotifications.size();
+            eventCount = eventNotifications.size();
 
-        if (dataNotifications.size() > 0) {
-            DataChangeNotification dataChange = new DataChangeNotification(
-                    dataNotifications.toArray(new MonitoredItemNotification[dataNotifications.size()]),
-                    new DiagnosticInfo[0]);
-
-            notificationData.add(ExtensionObject.encode(dataChange));
-        }
+            if (dataCount > 0) {
+                notificationData.add(EncodedDataValue.encodeDataChange(dataNotifications));
+            }
 
-        if (eventNotifications.size() > 0) {
-            EventNotificationList eventChange = new EventNotificationList(
-                    eventNotifications.toArray(new EventFieldList[eventNotifications.size()]));
+            if (eventCount > 0) {
+                EventNotificationList eventChange = new EventNotificationList(
+                        eventNotifications.toArray(new EventFieldList[eventNotifications.size()]));
 
-            notificationData.add(ExtensionObject.encode(eventChange));
+                notificationData.add(ExtensionObject.encode(eventChange));
+            }
+        } finally {
+            dataNotifications.clear();
+            eventNotifications.clear();
         }
 
         UInteger sequenceNumber = uint(nextSequenceNumber());
@@ -454,7 +537,7 @@ public class Subscription {
                 notificationData.toArray(new ExtensionObject[notificationData.size()])
         );
 
-        availableMessages.put(notificationMessage.getSequenceNumber(), notificationMessage);
+        retransmissionQueue.add(notificationMessage);
         UInteger[] available = getAvailableSequenceNumbers();
 
         UInteger requestHandle = service.getRequest().getRequestHeader().getRequestHandle();
@@ -470,17 +553,35 @@ public class Subscription {
         service.setResponse(response);
 
         logger.debug("[id={}] returning {} DataChangeNotification(s) and {} EventNotificationList(s) sequenceNumber={}.",
-                subscriptionId, dataNotifications.size(), eventNotifications.size(), sequenceNumber);
+                subscriptionId, dataCount, eventCount, sequenceNumber);
     }
 
     private boolean notificationsAvailable() {
-        return itemsById.values().stream()
-                .anyMatch(item -> item.hasNotifications() || item.isTriggered());
+        if (lastIterator.hasNext() || packer.hasHeldBack()) return true;
+
+        BaseMonitoredItem<?> item;
+        while ((item = readyItems.peek()) != null) {
+            if (itemsById.get(item.getId()) == item && item.isReportable()) {
+                return true;
+            }
+
+            readyItems.poll();
+
+            if (itemsById.get(item.getId()) == item) {
+                item.resetReady();
+            }
+        }
+
+        return false;
     }
 
     private void setState(State state) {
         State previousState = this.state.getAndSet(state);
 
+        if (state == State.Closed) {
+            retransmissionQueue.clear();
+        }
+
         logger.debug("[id={}] {} -> {}", subscriptionId, previousState, state);
 
         StateListener listener = stateListener.get();
@@ -494,6 +595,10 @@ public class Subscription {
         return subscriptionId;
     }
 
+    public State getState() {
+        return state.get();
+    }
+
     public double getPublishingInterval() {
         return publishingInterval;
     }
@@ -518,19 +623,30 @@ public class Subscription {
         return priority;
     }
 
-    public synchronized UInteger[] getAvailableSequenceNumbers() {
-        Set<UInteger> uIntegers = availableMessages.keySet();
-        UInteger[] available = uIntegers.toArray(new UInteger[uIntegers.size()]);
-        Arrays.sort(available);
-        return available;
+    public UInteger[] getAvailableSequenceNumbers() {
+        return retransmissionQueue.getAvailableSequenceNumbers();
     }
 
-    public synchronized SubscriptionManager getSubscriptionManager() {
+    public SubscriptionManager getSubscriptionManager() {
         return subscriptionManager;
     }
 
     public synchronized void setSubscriptionManager(SubscriptionManager subscriptionManager) {
         this.subscriptionManager = subscriptionManager;
+
+        setBudgets(subscriptionManager.getRetransmissionBudget(), subscriptionManager.getQueueBudget());
+    }
+
+    /**
+     * Move this subscription's retransmission queue and monitored item queues onto new budgets.
+     *
+     * @param retransmissionBudget the {@link MemoryBudget} for NotificationMessages kept for Republish.
+     * @param queueBudget          the {@link MemoryBudget} for monitored item queues.
+     */
+    synchronized void setBudgets(MemoryBudget retransmissionBudget, MemoryBudget queueBudget) {
+        retransmissionQueue.setBudget(retransmissionBudget);
+
+        itemsById.values().forEach(item -> item.setQueueBudget(queueBudget));
     }
 
     public Session getSession() {
@@ -546,11 +662,15 @@ public class Subscription {
     }
 
     /**
-     * Handle an incoming {@link PublishRequest}.
+     * Handle an incoming {@link PublishRequest} on this subscription's publish worker.
      *
      * @param service The service request that contains the {@link PublishRequest}.
      */
-    synchronized void onPublish(ServiceRequest<PublishRequest, PublishResponse> service) {
+    void onPublish(ServiceRequest<PublishRequest, PublishResponse> service) {
+        publishWorker.execute(() -> handlePublish(service));
+    }
+
+    private synchronized void handlePublish(ServiceRequest<PublishRequest, PublishResponse> service) {
         State state = this.state.get();
 
         logger.trace("[id={}] onPublish(), state={}, keep-alive={}, lifetime={}",
@@ -565,9 +685,12 @@ public class Subscription {
     }
 
     /**
-     * The publishing timer has elapsed.
+     * The publishing timer has elapsed. Runs on this subscription's publish worker.
      */
-    synchronized void onPublishingTimer() {
+    private synchronized void onPublishingTimer() {
+        subscriptionManager.getServer().getOverloadGovernor()
+                .recordPublishLatency(System.nanoTime() - publishingTimerDue);
+
         State state = this.state.get();
 
         logger.trace("[id={}] onPublishingTimer(), state={}, keep-alive={}, lifetime={}",
@@ -592,16 +715,18 @@ public class Subscription {
         } else {
             long interval = DoubleMath.roundToLong(publishingInterval, RoundingMode.UP);
 
-            subscriptionManager.getServer().getScheduledExecutorService().schedule(
-                    this::onPublishingTimer,
+            publishingTimerDue = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+
+            subscriptionManager.getServer().getPublishingTimerWheel().newTimeout(
+                    () -> publishWorker.execute(this::onPublishingTimer),
                     interval,
                     TimeUnit.MILLISECONDS
             );
         }
     }
 
-    public synchronized StatusCode acknowledge(UInteger sequenceNumber) {
-        if (availableMessages.remove(sequenceNumber) != null) {
+    public StatusCode acknowledge(UInteger sequenceNumber) {
+        if (retransmissionQueue.remove(sequenceNumber)) {
             logger.debug("[id={}] sequence number acknowledged: {}", subscriptionId, sequenceNumber);
 
             return StatusCode.GOOD;
@@ -615,7 +740,7 @@ public class Subscription {
     public synchronized NotificationMessage republish(UInteger sequenceNumber) {
         resetLifetimeCounter();
 
-        return availableMessages.get(sequenceNumber);
+        return retransmissionQueue.get(sequenceNumber);
     }
 
     private class PublishHandler {
@@ -19,21 +19,25 @@
 
 package com.digitalpetri.opcua.sdk.server.subscriptions;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.core.AccessLevel;
 import com.digitalpetri.opcua.sdk.core.AttributeId;
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
 import com.digitalpetri.opcua.sdk.core.NumericRange;
+import com.digitalpetri.opcua.sdk.core.nodes.VariableNode;
 import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.Session;
@@ -42,26 +46,33 @@ import com.digitalpetri.opcua.sdk.server.api.DataItem;
 import com.digitalpetri.opcua.sdk.server.api.EventItem;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
 import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.UaNamespace;
 import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
 import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
 import com.digitalpetri.opcua.sdk.server.items.MonitoredEventItem;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
 import com.digitalpetri.opcua.sdk.server.subscriptions.Subscription.State;
+import com.digitalpetri.opcua.sdk.server.util.MemoryBudget;
 import com.digitalpetri.opcua.stack.core.StatusCodes;
 import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.application.services.ServiceRequest;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
 import com.digitalpetri.opcua.stack.core.types.builtin.DiagnosticInfo;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
 import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
 import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
 import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
 import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
 import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.CreateMonitoredItemsRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.CreateMonitoredItemsResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.CreateSubscriptionRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.CreateSubscriptionResponse;
+import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
 import com.digitalpetri.opcua.stack.core.types.structured.DeleteMonitoredItemsRequest;
 import com.digitalpetri.opcua.stack.core.types.structured.DeleteMonitoredItemsResponse;
 import com.digitalpetri.opcua.stack.core.types.structured.DeleteSubscriptionsRequest;
@@ -107,6 +118,7 @@ public class SubscriptionManager {
 
     private static final QualifiedName DEFAULT_BINARY_ENCODING = new QualifiedName(0, "DefaultBinary");
     private static final QualifiedName DEFAULT_XML_ENCODING = new QualifiedName(0, "DefaultXML");
+    private static final QualifiedName EU_RANGE = new QualifiedName(0, "EURange");
 
     private static final AtomicLong SUBSCRIPTION_IDS = new AtomicLong(0L);
 
@@ -123,12 +135,27 @@ public class SubscriptionManager {
     private final Map<UInteger, Subscription> subscriptions = Maps.newConcurrentMap();
     private final List<Subscription> transferred = Lists.newCopyOnWriteArrayList();
 
+    private final MemoryBudget retransmissionBudget;
+    private final MemoryBudget queueBudget;
+
+    private final SampleRates supportedSampleRates;
+
     private final Session session;
     private final OpcUaServer server;
 
     public SubscriptionManager(Session session, OpcUaServer server) {
         this.session = session;
         this.server = server;
+
+        retransmissionBudget = new MemoryBudget(
+                server.getConfig().getLimits().getMaxRetransmissionBytesPerSession(),
+                server.getRetransmissionBudget());
+
+        queueBudget = new MemoryBudget(
+                server.getConfig().getLimits().getMaxQueueBytesPerSession(),
+                server.getQueueBudget());
+
+        supportedSampleRates = new SampleRates(server.getConfig().getLimits().getSupportedSampleRates());
     }
 
     public Session getSession() {
@@ -143,6 +170,20 @@ public class SubscriptionManager {
         return server;
     }
 
+    /**
+     * @return the {@link MemoryBudget} for NotificationMessages kept for Republish by this session's subscriptions.
+     */
+    public MemoryBudget getRetransmissionBudget() {
+        return retransmissionBudget;
+    }
+
+    /**
+     * @return the {@link MemoryBudget} for the monitored item queues of this session's subscriptions.
+     */
+    public MemoryBudget getQueueBudget() {
+        return queueBudget;
+    }
+
     public void createSubscription(ServiceRequest<CreateSubscriptionRequest, CreateSubscriptionResponse> service) {
         CreateSubscriptionRequest request = service.getRequest();
 
@@ -194,8 +235,15 @@ public class SubscriptionManager {
                 throw new UaException(StatusCodes.Bad_SubscriptionIdInvalid);
             }
 
+            int previousPriority = subscription.getPriority();
+
             subscription.modifySubscription(request);
 
+            // namespaces sample by priority while overloaded; a new priority is a modification of every data item.
+            if (subscription.getPriority() != previousPriority) {
+                notifyDataItemsModified(Lists.newArrayList(subscription.getMonitoredItems().values()));
+            }
+
             ResponseHeader header = service.createResponseHeader();
 
             ModifySubscriptionResponse response = new ModifySubscriptionResponse(
@@ -228,36 +276,7 @@ public class SubscriptionManager {
             if (subscription != null) {
                 List<BaseMonitoredItem<?>> deletedItems = subscription.deleteSubscription();
 
-                /*
-                * Notify namespaces of the items we just deleted.
-                */
-
-                Map<UShort, List<BaseMonitoredItem<?>>> byNamespace = deletedItems.stream()
-                        .collect(Collectors.groupingBy(item -> item.getReadValueId().getNodeId().getNamespaceIndex()));
-
-                byNamespace.entrySet().forEach(entry -> {
-                    UShort namespaceIndex = entry.getKey();
-
-                    List<BaseMonitoredItem<?>> items = entry.getValue();
-                    List<DataItem> dataItems = Lists.newArrayList();
-                    List<EventItem> eventItems = Lists.newArrayList();
-
-
-                    for (BaseMonitoredItem<?> item : items) {
-                        if (item instanceof MonitoredDataItem) {
-                            dataItems.add((DataItem) item);
-                        } else if (item instanceof MonitoredEventItem) {
-                            eventItems.add((EventItem) item);
-                        }
-                    }
-
-                    if (!dataItems.isEmpty()) {
-                        server.getNamespaceManager().getNamespace(namespaceIndex).onDataItemsDeleted(dataItems);
-                    }
-                    if (!eventItems.isEmpty()) {
-                        server.getNamespaceManager().getNamespace(namespaceIndex).onEventItemsDeleted(eventItems);
-                    }
-                });
+                notifyItemsDeleted(deletedItems);
 
                 results[i] = StatusCode.GOOD;
             } else {
@@ -319,14 +338,24 @@ public class SubscriptionManager {
             if (itemsToCreate.length == 0) {
                 throw new UaException(StatusCodes.Bad_NothingToDo);
             }
+            if (server.getOverloadGovernor().isRejectingMonitoredItems()) {
+                server.getOverloadGovernor().recordRejectedMonitoredItems(itemsToCreate.length);
+
+                throw new UaException(StatusCodes.Bad_TooManyMonitoredItems);
+            }
 
-            List<BaseMonitoredItem<?>> createdItems = newArrayListWithCapacity(itemsToCreate.length);
+            BaseMonitoredItem<?>[] created = new BaseMonitoredItem<?>[itemsToCreate.length];
 
             List<PendingItemCreation> pending = Arrays.stream(itemsToCreate)
                     .map(PendingItemCreation::new)
                     .collect(toList());
 
-            for (PendingItemCreation p : pending) {
+            AttributeBatch attributeBatch = new AttributeBatch();
+
+            for (int i = 0; i < pending.size(); i++) {
+                PendingItemCreation p = pending.get(i);
+                int index = i;
+
                 MonitoredItemCreateRequest r = p.getRequest();
                 NodeId nodeId = r.getItemToMonitor().getNodeId();
                 UInteger attributeId = r.getItemToMonitor().getAttributeId();
@@ -352,10 +381,8 @@ public class SubscriptionManager {
                     }
                 }
 
-                Namespace namespace = server.getNamespaceManager().getNamespace(nodeId.getNamespaceIndex());
-
                 if (attributeId.equals(AttributeId.EVENT_NOTIFIER.uid())) {
-                    readEventAttributes(namespace, nodeId).thenAccept(as -> {
+                    readEventAttributes(attributeBatch, nodeId).thenAccept(as -> {
                         Optional<UByte> eventNotifier = as.v3();
 
                         try {
@@ -374,7 +401,9 @@ public class SubscriptionManager {
                                     r.getRequestedParameters().getDiscardOldest(),
                                     r.getRequestedParameters().getFilter());
 
-                            createdItems.add(item);
+                            item.setQueueBudget(queueBudget);
+
+                            created[index] = item;
 
                             MonitoredItemCreateResult result = new MonitoredItemCreateResult(
                                     StatusCode.GOOD,
@@ -390,21 +419,23 @@ public class SubscriptionManager {
 
                             p.getResultFuture().complete(result);
                         }
+                    }).exceptionally(ex -> {
+                        MonitoredItemCreateResult result =
+                                new MonitoredItemCreateResult(statusOf(ex), uint(0), 0d, uint(0), null);
+
+                        p.getResultFuture().complete(result);
+                        return null;
                     });
                 } else {
-                    readDataAttributes(namespace, nodeId).thenAccept(as -> {
+                    readDataAttributes(attributeBatch, nodeId).thenAccept(as -> {
                         EnumSet<AccessLevel> accessLevels = as.v1();
                         EnumSet<AccessLevel> userAccessLevels = as.v2();
                         double minimumSamplingInterval = as.v3();
 
-                        double samplingInterval = r.getRequestedParameters().getSamplingInterval();
-                        double minSupportedSampleRate = server.getConfig().getLimits().getMinSupportedSampleRate();
-                        double maxSupportedSampleRate = server.getConfig().getLimits().getMaxSupportedSampleRate();
-
-                        if (samplingInterval < 0) samplingInterval = subscription.getPublishingInterval();
-                        if (samplingInterval < minimumSamplingInterval) samplingInterval = minimumSamplingInterval;
-                        if (samplingInterval < minSupportedSampleRate) samplingInterval = minSupportedSampleRate;
-                        if (samplingInterval > maxSupportedSampleRate) samplingInterval = maxSupportedSampleRate;
+                        double samplingInterval = reviseSamplingInterval(
+                                r.getRequestedParameters().getSamplingInterval(),
+                                minimumSamplingInterval,
+                                subscription);
 
                         try {
                             if (!accessLevels.contains(AccessLevel.CurrentRead)) {
@@ -427,9 +458,12 @@ public class SubscriptionManager {
                                     samplingInterval,
                                     r.getRequestedParameters().getFilter(),
                                     r.getRequestedParameters().getQueueSize(),
-                                    r.getRequestedParameters().getDiscardOldest());
+                                    r.getRequestedParameters().getDiscardOldest(),
+                                    euRangeNode(nodeId, r.getRequestedParameters().getFilter()));
+
+                            item.setQueueBudget(queueBudget);
 
-                            createdItems.add(item);
+                            created[index] = item;
 
                             MonitoredItemCreateResult result = new MonitoredItemCreateResult(
                                     StatusCode.GOOD,
@@ -445,15 +479,27 @@ public class SubscriptionManager {
 
                             p.getResultFuture().complete(result);
                         }
+                    }).exceptionally(ex -> {
+                        MonitoredItemCreateResult result =
+                                new MonitoredItemCreateResult(statusOf(ex), uint(0), 0d, uint(0), null);
+
+                        p.getResultFuture().complete(result);
+                        return null;
                     });
                 }
             }
 
+            attributeBatch.execute();
+
             List<CompletableFuture<MonitoredItemCreateResult>> futures = pending.stream()
                     .map(PendingItemCreation::getResultFuture)
                     .collect(toList());
 
             sequence(futures).thenAccept(results -> {
+                List<BaseMonitoredItem<?>> createdItems = Arrays.stream(created)
+                        .filter(Objects::nonNull)
+                        .collect(toList());
+
                 subscription.addMonitoredItems(createdItems);
 
                 // Notify namespaces of the items we just created.
@@ -518,13 +564,18 @@ public class SubscriptionManager {
                     .map(PendingItemModification::new)
                     .collect(toList());
 
-            List<BaseMonitoredItem<?>> modifiedItems = newArrayListWithCapacity(itemsToModify.length);
+            BaseMonitoredItem<?>[] modified = new BaseMonitoredItem<?>[itemsToModify.length];
+
+            AttributeBatch attributeBatch = new AttributeBatch();
 
             /*
              * Modify requested items and prepare results.
              */
 
-            for (PendingItemModification p : pending) {
+            for (int i = 0; i < pending.size(); i++) {
+                PendingItemModification p = pending.get(i);
+                int index = i;
+
                 MonitoredItemModifyRequest r = p.getRequest();
                 UInteger itemId = r.getMonitoredItemId();
                 MonitoringParameters parameters = r.getRequestedParameters();
@@ -539,21 +590,20 @@ public class SubscriptionManager {
                     p.getResultFuture().complete(result);
                 } else {
                     NodeId nodeId = item.getReadValueId().getNodeId();
-                    Namespace namespace = server.getNamespaceManager().getNamespace(nodeId.getNamespaceIndex());
 
-                    readDataAttributes(namespace, nodeId).thenAccept(as -> {
+                    readDataAttributes(attributeBatch, nodeId).thenAccept(as -> {
                         double minimumSamplingInterval = as.v3();
 
-                        double samplingInterval = parameters.getSamplingInterval();
-                        double minSupportedSampleRate = server.getConfig().getLimits().getMinSupportedSampleRate();
-                        double maxSupportedSampleRate = server.getConfig().getLimits().getMaxSupportedSampleRate();
-
-                        if (samplingInterval < 0) samplingInterval = subscription.getPublishingInterval();
-                        if (samplingInterval < minimumSamplingInterval) samplingInterval = minimumSamplingInterval;
-                        if (samplingInterval < minSupportedSampleRate) samplingInterval = minSupportedSampleRate;
-                        if (samplingInterval > maxSupportedSampleRate) samplingInterval = maxSupportedSampleRate;
+                        double samplingInterval = reviseSamplingInterval(
+                                parameters.getSamplingInterval(),
+                                minimumSamplingInterval,
+                                subscription);
 
                         try {
+                            if (item instanceof MonitoredDataItem) {
+                                ((MonitoredDataItem) item).setEURangeNode(euRangeNode(nodeId, parameters.getFilter()));
+                            }
+
                             item.modify(
                                     timestamps,
                                     parameters.getClientHandle(),
@@ -562,7 +612,7 @@ public class SubscriptionManager {
                                     parameters.getQueueSize(),
                                     parameters.getDiscardOldest());
 
-                            modifiedItems.add(item);
+                            modified[index] = item;
 
                             MonitoredItemModifyResult result = new MonitoredItemModifyResult(
                                     StatusCode.GOOD,
@@ -580,10 +630,21 @@ public class SubscriptionManager {
 
                             p.getResultFuture().complete(result);
                         }
+                    }).exceptionally(ex -> {
+                        MonitoredItemModifyResult result = new MonitoredItemModifyResult(
+                                statusOf(ex),
+                                item.getSamplingInterval(),
+                                uint(item.getQueueSize()),
+                                item.getFilterResult());
+
+                        p.getResultFuture().complete(result);
+                        return null;
                     });
                 }
             }
 
+            attributeBatch.execute();
+
             subscription.resetLifetimeCounter();
 
             /*
@@ -595,6 +656,10 @@ public class SubscriptionManager {
                     .collect(toList());
 
             sequence(futures).thenAccept(results -> {
+                List<BaseMonitoredItem<?>> modifiedItems = Arrays.stream(modified)
+                        .filter(Objects::nonNull)
+                        .collect(toList());
+
                 Map<UShort, List<BaseMonitoredItem<?>>> byNamespace = modifiedItems.stream()
                         .collect(Collectors.groupingBy(item -> item.getReadValueId().getNodeId().getNamespaceIndex()));
 
@@ -637,21 +702,61 @@ public class SubscriptionManager {
         }
     }
 
-    private CompletableFuture<DataAttributes> readDataAttributes(Namespace namespace, NodeId nodeId) {
-        Function<AttributeId, ReadValueId> f = id ->
-                new ReadValueId(nodeId, id.uid(), null, QualifiedName.NULL_VALUE);
+    private double reviseSamplingInterval(double requested,
+                                          double minimumSamplingInterval,
+                                          Subscription subscription) {
+
+        double minSupportedSampleRate = server.getConfig().getLimits().getMinSupportedSampleRate();
+        double maxSupportedSampleRate = server.getConfig().getLimits().getMaxSupportedSampleRate();
+
+        double samplingInterval = requested;
 
-        ReadContext readContext = new ReadContext(
-                server, null, new DiagnosticsContext<>());
+        if (samplingInterval < 0) samplingInterval = subscription.getPublishingInterval();
+        if (samplingInterval < minimumSamplingInterval) samplingInterval = minimumSamplingInterval;
+        if (samplingInterval < minSupportedSampleRate) samplingInterval = minSupportedSampleRate;
+        if (samplingInterval > maxSupportedSampleRate) samplingInterval = maxSupportedSampleRate;
 
-        List<ReadValueId> readValueIds = newArrayList(
-                f.apply(AttributeId.ACCESS_LEVEL),
-                f.apply(AttributeId.USER_ACCESS_LEVEL),
-                f.apply(AttributeId.MINIMUM_SAMPLING_INTERVAL));
+        double floor = Math.max(minimumSamplingInterval, minSupportedSampleRate);
 
-        namespace.read(readContext, 0.0, TimestampsToReturn.Neither, readValueIds);
+        return Math.min(supportedSampleRates.quantize(samplingInterval, floor), Math.max(maxSupportedSampleRate, floor));
+    }
+
+    /**
+     * A PercentDeadband is a percentage of the EURange of the monitored node. Find the EURange property node when the
+     * requested filter needs it so the item can resolve and observe it.
+     */
+    @Nullable
+    private UaNode euRangeNode(NodeId nodeId, ExtensionObject filterXo) {
+        Object filter = filterXo != null ? filterXo.decode() : null;
+
+        if (!(filter instanceof DataChangeFilter) ||
+                ((DataChangeFilter) filter).getDeadbandType().intValue() != DeadbandType.Percent.getValue()) {
+            return null;
+        }
+
+        Namespace namespace = server.getNamespaceManager().getNamespace(nodeId.getNamespaceIndex());
+
+        if (!(namespace instanceof UaNamespace)) return null;
+
+        return ((UaNamespace) namespace).getNode(nodeId)
+                .flatMap(node -> {
+                    Optional<VariableNode> property = node.getPropertyNode(EU_RANGE);
+
+                    return property.isPresent() ? property : node.getPropertyNode(EU_RANGE.getName());
+                })
+                .filter(UaNode.class::isInstance)
+                .map(UaNode.class::cast)
+                .orElse(null);
+    }
 
-        return readContext.getFuture().thenApply(values -> {
+    private CompletableFuture<DataAttributes> readDataAttributes(AttributeBatch batch, NodeId nodeId) {
+        CompletableFuture<List<DataValue>> future = batch.read(
+                nodeId,
+                AttributeId.ACCESS_LEVEL,
+                AttributeId.USER_ACCESS_LEVEL,
+                AttributeId.MINIMUM_SAMPLING_INTERVAL);
+
+        return future.thenApply(values -> {
             UByte accessLevel = Optional.ofNullable((UByte) values.get(0).getValue().getValue()).orElse(ubyte(1));
             UByte userAccessLevel = Optional.ofNullable((UByte) values.get(1).getValue().getValue()).orElse(ubyte(1));
             Double minimumSamplingInterval = Optional.ofNullable((Double) values.get(2).getValue().getValue()).orElse(0.0);
@@ -663,21 +768,14 @@ public class SubscriptionManager {
         });
     }
 
-    private CompletableFuture<EventAttributes> readEventAttributes(Namespace namespace, NodeId nodeId) {
-        Function<AttributeId, ReadValueId> f = id ->
-                new ReadValueId(nodeId, id.uid(), null, QualifiedName.NULL_VALUE);
-
-        ReadContext readContext = new ReadContext(
-                server, null, new DiagnosticsContext<>());
-
-        List<ReadValueId> readValueIds = newArrayList(
-                f.apply(AttributeId.ACCESS_LEVEL),
-                f.apply(AttributeId.USER_ACCESS_LEVEL),
-                f.apply(AttributeId.EVENT_NOTIFIER));
+    private CompletableFuture<EventAttributes> readEventAttributes(AttributeBatch batch, NodeId nodeId) {
+        CompletableFuture<List<DataValue>> future = batch.read(
+                nodeId,
+                AttributeId.ACCESS_LEVEL,
+                AttributeId.USER_ACCESS_LEVEL,
+                AttributeId.EVENT_NOTIFIER);
 
-        namespace.read(readContext, 0.0, TimestampsToReturn.Neither, readValueIds);
-
-        return readContext.getFuture().thenApply(values -> {
+        return future.thenApply(values -> {
             UByte accessLevel = Optional.ofNullable((UByte) values.get(0).getValue().getValue()).orElse(ubyte(1));
             UByte userAccessLevel = Optional.ofNullable((UByte) values.get(1).getValue().getValue()).orElse(ubyte(1));
             Optional<UByte> eventNotifier = Optional.ofNullable((UByte) values.get(2).getValue().getValue());
@@ -689,6 +787,94 @@ public class SubscriptionManager {
         });
     }
 
+    /**
+     * Collects the attribute reads needed to validate the items of a single request so they can be issued as one
+     * {@link Namespace#read} per namespace. Each caller gets back just the values for the attributes it asked for.
+     */
+    private class AttributeBatch {
+
+        private final Map<UShort, List<ReadValueId>> readValueIds = Maps.newLinkedHashMap();
+        private final Map<UShort, List<CompletableFuture<List<DataValue>>>> futures = Maps.newHashMap();
+        private final Map<UShort, List<Integer>> counts = Maps.newHashMap();
+
+        private CompletableFuture<List<DataValue>> read(NodeId nodeId, AttributeId... attributeIds) {
+            UShort namespaceIndex = nodeId.getNamespaceIndex();
+
+            List<ReadValueId> ids = readValueIds.computeIfAbsent(namespaceIndex, k -> newArrayList());
+
+            for (AttributeId attributeId : attributeIds) {
+                ids.add(new ReadValueId(nodeId, attributeId.uid(), null, QualifiedName.NULL_VALUE));
+            }
+
+            CompletableFuture<List<DataValue>> future = new CompletableFuture<>();
+
+            futures.computeIfAbsent(namespaceIndex, k -> newArrayList()).add(future);
+            counts.computeIfAbsent(namespaceIndex, k -> newArrayList()).add(attributeIds.length);
+
+            return future;
+        }
+
+        /**
+         * Issue one read per namespace on that namespace's executor. Every future handed out by {@link #read} is
+         * completed, exceptionally if the read fails, is rejected, or returns fewer values than were asked for.
+         */
+        private void execute() {
+            readValueIds.forEach((namespaceIndex, ids) -> {
+                List<CompletableFuture<List<DataValue>>> fs = futures.get(namespaceIndex);
+                List<Integer> cs = counts.get(namespaceIndex);
+
+                ReadContext readContext = new ReadContext(
+                        server, null, new DiagnosticsContext<>());
+
+                readContext.getFuture().whenComplete((values, ex) -> {
+                    if (values != null && values.size() < ids.size()) {
+                        logger.warn("Namespace {} returned {} values for {} attributes.",
+                                namespaceIndex, values.size(), ids.size());
+
+                        ex = new UaException(StatusCodes.Bad_InternalError);
+                    }
+
+                    int offset = 0;
+
+                    for (int i = 0; i < fs.size(); i++) {
+                        int count = cs.get(i);
+
+                        if (ex == null) {
+                            fs.get(i).complete(values.subList(offset, offset + count));
+                        } else {
+                            fs.get(i).completeExceptionally(ex);
+                        }
+
+                        offset += count;
+                    }
+                });
+
+                try {
+                    server.getNamespaceManager().getExecutor(namespaceIndex).execute(() -> {
+                        try {
+                            Namespace namespace = server.getNamespaceManager().getNamespace(namespaceIndex);
+
+                            namespace.read(readContext, 0.0, TimestampsToReturn.Neither, ids);
+                        } catch (Throwable t) {
+                            readContext.getFuture().completeExceptionally(t);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    readContext.getFuture().completeExceptionally(new UaException(StatusCodes.Bad_ResourceUnavailable));
+                }
+            });
+        }
+
+    }
+
+    private static StatusCode statusOf(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+
+        return cause instanceof UaException ?
+                ((UaException) cause).getStatusCode() :
+                new StatusCode(StatusCodes.Bad_InternalError);
+    }
+
     private static class DataAttributes extends Tuple3<EnumSet<AccessLevel>, EnumSet<AccessLevel>, Double> {
         public DataAttributes(EnumSet<AccessLevel> v1, EnumSet<AccessLevel> v2, Double v3) {
             super(v1, v2, v3);
@@ -982,19 +1168,97 @@ public class SubscriptionManager {
         }
     }
 
-    public void sessionClosed(boolean deleteSubscriptions) {
+    /**
+     * The session has closed or timed out.
+     * <p>
+     * Subscriptions that aren't deleted are handed to the server's {@link OrphanedSubscriptions}, where they keep
+     * sampling until they're reattached to a new session, or their retention window or lifetime runs out.
+     *
+     * @param deleteSubscriptions {@code true} if the client asked for this session's subscriptions to be deleted.
+     * @return {@code true} if every subscription was deleted, {@code false} if any were orphaned.
+     */
+    public boolean sessionClosed(boolean deleteSubscriptions) {
+        boolean deleted = true;
+        List<Subscription> evicted = Lists.newArrayList();
+
         Iterator<Subscription> iterator = subscriptions.values().iterator();
 
         while (iterator.hasNext()) {
             Subscription s = iterator.next();
-            s.setStateListener(null);
+            iterator.remove();
 
-            if (deleteSubscriptions) {
-                server.getSubscriptions().remove(s.getId());
-            }
+            synchronized (s) {
+                // transferred to another session while we were closing.
+                if (s.getSubscriptionManager() != this) continue;
 
-            iterator.remove();
+                s.setStateListener(null);
+
+                if (deleteSubscriptions ||
+                        !server.getOrphanedSubscriptions().retain(s, session.getIdentityObject(), evicted)) {
+
+                    delete(s);
+                } else {
+                    deleted = false;
+                }
+            }
         }
+
+        // each evicted orphan is locked to delete it; only once no other subscription's monitor is held.
+        server.getOrphanedSubscriptions().deleteEvicted(evicted);
+
+        return deleted;
+    }
+
+    /**
+     * Delete {@code subscription} and notify namespaces of the items deleted with it.
+     *
+     * @param subscription the {@link Subscription} to delete.
+     */
+    void delete(Subscription subscription) {
+        subscriptions.remove(subscription.getId());
+        server.getSubscriptions().remove(subscription.getId());
+
+        subscription.setStateListener(null);
+
+        notifyItemsDeleted(subscription.deleteSubscription());
+    }
+
+    private void notifyDataItemsModified(List<BaseMonitoredItem<?>> modifiedItems) {
+        Map<UShort, List<DataItem>> byNamespace = modifiedItems.stream()
+                .filter(item -> item instanceof MonitoredDataItem)
+                .map(item -> (DataItem) item)
+                .collect(Collectors.groupingBy(item -> item.getReadValueId().getNodeId().getNamespaceIndex()));
+
+        byNamespace.entrySet().forEach(entry ->
+                server.getNamespaceManager().getNamespace(entry.getKey()).onDataItemsModified(entry.getValue()));
+    }
+
+    private void notifyItemsDeleted(List<BaseMonitoredItem<?>> deletedItems) {
+        Map<UShort, List<BaseMonitoredItem<?>>> byNamespace = deletedItems.stream()
+                .collect(Collectors.groupingBy(item -> item.getReadValueId().getNodeId().getNamespaceIndex()));
+
+        byNamespace.entrySet().forEach(entry -> {
+            UShort namespaceIndex = entry.getKey();
+
+            List<BaseMonitoredItem<?>> items = entry.getValue();
+            List<DataItem> dataItems = Lists.newArrayList();
+            List<EventItem> eventItems = Lists.newArrayList();
+
+            for (BaseMonitoredItem<?> item : items) {
+                if (item instanceof MonitoredDataItem) {
+                    dataItems.add((DataItem) item);
+                } else if (item instanceof MonitoredEventItem) {
+                    eventItems.add((EventItem) item);
+                }
+            }
+
+            if (!dataItems.isEmpty()) {
+                server.getNamespaceManager().getNamespace(namespaceIndex).onDataItemsDeleted(dataItems);
+            }
+            if (!eventItems.isEmpty()) {
+                server.getNamespaceManager().getNamespace(namespaceIndex).onEventItemsDeleted(eventItems);
+            }
+        });
     }
 
     public Subscription removeSubscription(UInteger subscriptionId) {
@@ -0,0 +1,420 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.function.Consumer;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.AggregateConfiguration;
+import com.digitalpetri.opcua.stack.core.types.structured.AggregateFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.AggregateFilterResult;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+
+/**
+ * Computes an {@link AggregateFilter} incrementally over consecutive processing intervals.
+ * <p>
+ * Each sample is folded into the running state of the current interval as it arrives; nothing is buffered. An
+ * interval is closed, and its aggregate reported, when the first sample at or past its end arrives, so the item must
+ * be sampled periodically for intervals to close on time.
+ * <p>
+ * Samples are placed in intervals by the time they arrive, not by their SourceTimestamp. A polled source whose value
+ * hasn't changed keeps returning the same SourceTimestamp, and a source clock behind the server's would put every
+ * sample before the first interval; either would keep intervals from ever closing.
+ * <p>
+ * Raw values are interpolated linearly between samples for the time-weighted aggregates (TimeAverage, Total and
+ * Interpolative). Quality follows the PercentDataGood / PercentDataBad rules of the {@link AggregateConfiguration},
+ * applied to the number of raw values in the interval.
+ */
+public class AggregateMonitoringFilter {
+
+    /**
+     * DateTime ticks are 100ns.
+     */
+    private static final long TICKS_PER_MILLI = 10_000L;
+    private static final double TICKS_PER_SECOND = 10_000_000.0;
+
+    private static final long INFO_TYPE_DATA_VALUE = 0x00000400L;
+    private static final long HISTORIAN_CALCULATED = 0x00000001L;
+    private static final long HISTORIAN_INTERPOLATED = 0x00000002L;
+    private static final long HISTORIAN_PARTIAL = 0x00000004L;
+
+    private static final AggregateConfiguration DEFAULT_CONFIGURATION =
+            new AggregateConfiguration(true, true, ubyte(100), ubyte(100), false);
+
+    private enum Aggregate {
+        Average, Minimum, Maximum, Count, Total, Start, End, Delta, TimeAverage, Interpolative
+    }
+
+    private final Aggregate aggregate;
+    private final long interval;
+    private final boolean treatUncertainAsBad;
+    private final int percentDataGood;
+    private final int percentDataBad;
+    private final AggregateFilterResult filterResult;
+    private final Consumer<DataValue> sink;
+
+    private long intervalStart;
+    private long intervalEnd;
+    private boolean started = false;
+
+    /**
+     * The interval started before the first sample the filter saw; it can't be reported as complete.
+     */
+    private boolean partial = true;
+
+    private int goodCount;
+    private int badCount;
+    private double sum;
+    private double min;
+    private double max;
+    private double first;
+    private double last;
+
+    private double area;
+    private long covered;
+
+    /**
+     * The value at the start of the current interval, interpolated from the samples either side of it.
+     */
+    private double startBound;
+
+    private boolean hasPrevious = false;
+    private long previousTime;
+    private double previousValue;
+
+    private AggregateMonitoringFilter(Aggregate aggregate,
+                                      long interval,
+                                      long startTime,
+                                      AggregateConfiguration configuration,
+                                      AggregateFilterResult filterResult,
+                                      Consumer<DataValue> sink) {
+
+        this.aggregate = aggregate;
+        this.interval = interval;
+        this.treatUncertainAsBad = configuration.getTreatUncertainAsBad();
+        this.percentDataGood = configuration.getPercentDataGood().intValue();
+        this.percentDataBad = configuration.getPercentDataBad().intValue();
+        this.filterResult = filterResult;
+        this.sink = sink;
+
+        this.intervalStart = startTime;
+        this.intervalEnd = startTime + interval;
+
+        reset();
+    }
+
+    public AggregateFilterResult getFilterResult() {
+        return filterResult;
+    }
+
+    /**
+     * Fold a sampled value into the aggregate at the current time. Every interval that ends at or before now is closed
+     * and reported to the sink first.
+     *
+     * @param value the sampled value.
+     */
+    public void add(DataValue value) {
+        add(value, DateTime.now().getUtcTime());
+    }
+
+    /**
+     * @param value the sampled value.
+     * @param time  the time {@code value} was sampled, in DateTime ticks.
+     */
+    void add(DataValue value, long time) {
+        if (!started) {
+            started = true;
+
+            if (time >= intervalEnd) {
+                long skipped = (time - intervalStart) / interval;
+                intervalStart += skipped * interval;
+                intervalEnd = intervalStart + interval;
+            }
+
+            partial = time > intervalStart;
+        }
+
+        if (time < intervalStart) return;
+
+        StatusCode status = value.getStatusCode();
+        Object raw = value.getValue().getValue();
+
+        boolean good = status == null || status.isGood() || (status.isUncertain() && !treatUncertainAsBad);
+        boolean numeric = raw instanceof Number || raw instanceof Boolean;
+
+        if (!good || !numeric) {
+            while (time >= intervalEnd) {
+                closeInterval(Double.NaN);
+            }
+            badCount++;
+            return;
+        }
+
+        double v = raw instanceof Boolean ? ((Boolean) raw ? 1.0 : 0.0) : ((Number) raw).doubleValue();
+
+        while (time >= intervalEnd) {
+            double endBound = Double.NaN;
+
+            if (hasPrevious) {
+                integrate(Math.max(previousTime, intervalStart), intervalEnd, time, v);
+                endBound = interpolate(intervalEnd, time, v);
+            } else if (time == intervalEnd) {
+                endBound = v;
+            }
+
+            closeInterval(endBound);
+        }
+
+        if (hasPrevious) {
+            integrate(Math.max(previousTime, intervalStart), time, time, v);
+        } else if (time == intervalStart) {
+            startBound = v;
+        }
+
+        if (goodCount == 0) {
+            first = v;
+            min = v;
+            max = v;
+        } else {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+
+        goodCount++;
+        sum += v;
+        last = v;
+
+        hasPrevious = true;
+        previousTime = time;
+        previousValue = v;
+    }
+
+    /**
+     * Accumulate the area under the line from the previous sample to ({@code time}, {@code value}), clipped to
+     * [{@code from}, {@code to}].
+     */
+    private void integrate(long from, long to, long time, double value) {
+        if (to <= from) return;
+
+        double a = interpolate(from, time, value);
+        double b = interpolate(to, time, value);
+
+        area += (a + b) / 2.0 * (to - from);
+        covered += to - from;
+    }
+
+    private double interpolate(long at, long time, double value) {
+        if (time == previousTime) return value;
+
+        return previousValue + (value - previousValue) * (at - previousTime) / (double) (time - previousTime);
+    }
+
+    private void closeInterval(double endBound) {
+        sink.accept(result());
+
+        intervalStart = intervalEnd;
+        intervalEnd = intervalStart + interval;
+        partial = false;
+
+        reset();
+
+        startBound = endBound;
+    }
+
+    private void reset() {
+        goodCount = 0;
+        badCount = 0;
+        sum = 0.0;
+        min = 0.0;
+        max = 0.0;
+        first = 0.0;
+        last = 0.0;
+        area = 0.0;
+        covered = 0L;
+        startBound = Double.NaN;
+    }
+
+    private DataValue result() {
+        DateTime timestamp = new DateTime(intervalStart);
+
+        switch (aggregate) {
+            case Count:
+                return new DataValue(new Variant(goodCount), status(true, false), timestamp, DateTime.now());
+
+            case Interpolative:
+                if (Double.isNaN(startBound)) return noData(timestamp);
+                return new DataValue(new Variant(startBound), status(true, true), timestamp, DateTime.now());
+
+            case TimeAverage:
+            case Total:
+                if (covered == 0L) return noData(timestamp);
+                double average = area / covered;
+                double result = aggregate == Aggregate.TimeAverage ?
+                        average : average * interval / TICKS_PER_SECOND;
+                return new DataValue(new Variant(result), status(false, false), timestamp, DateTime.now());
+
+            default:
+                if (goodCount == 0) return noData(timestamp);
+        }
+
+        double result;
+
+        switch (aggregate) {
+            case Average:
+                result = sum / goodCount;
+                break;
+            case Minimum:
+                result = min;
+                break;
+            case Maximum:
+                result = max;
+                break;
+            case Start:
+                result = first;
+                break;
+            case End:
+                result = last;
+                break;
+            default:
+                // Delta
+                result = last - first;
+                break;
+        }
+
+        return new DataValue(new Variant(result), status(false, false), timestamp, DateTime.now());
+    }
+
+    private DataValue noData(DateTime timestamp) {
+        return new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_NoData), timestamp, DateTime.now());
+    }
+
+    /**
+     * @param alwaysGood   the aggregate is meaningful regardless of how many raw values were bad.
+     * @param interpolated the value was interpolated rather than calculated from the raw values.
+     */
+    private StatusCode status(boolean alwaysGood, boolean interpolated) {
+        long code;
+
+        int total = goodCount + badCount;
+
+        if (alwaysGood || total == 0 || goodCount * 100 >= percentDataGood * total) {
+            code = StatusCodes.Good;
+        } else if (badCount * 100 >= percentDataBad * total) {
+            code = StatusCodes.Bad_NoData;
+        } else {
+            code = StatusCodes.Uncertain_DataSubNormal;
+        }
+
+        code |= INFO_TYPE_DATA_VALUE | (interpolated ? HISTORIAN_INTERPOLATED : HISTORIAN_CALCULATED);
+
+        if (partial) code |= HISTORIAN_PARTIAL;
+
+        return new StatusCode(code);
+    }
+
+    /**
+     * Create an {@link AggregateMonitoringFilter} for {@code filter}, revising its parameters as needed.
+     *
+     * @param filter           the requested {@link AggregateFilter}.
+     * @param samplingInterval the sampling interval of the item; the processing interval is revised up to it.
+     * @param sink             receives the aggregate of each interval as it closes.
+     * @return an {@link AggregateMonitoringFilter}.
+     * @throws UaException {@link StatusCodes#Bad_AggregateNotSupported} if the aggregate isn't supported.
+     */
+    public static AggregateMonitoringFilter create(AggregateFilter filter,
+                                                   double samplingInterval,
+                                                   Consumer<DataValue> sink) throws UaException {
+
+        return create(filter, samplingInterval, DateTime.now().getUtcTime(), sink);
+    }
+
+    /**
+     * @param now the current time, in DateTime ticks.
+     * @see #create(AggregateFilter, double, Consumer)
+     */
+    static AggregateMonitoringFilter create(AggregateFilter filter,
+                                            double samplingInterval,
+                                            long now,
+                                            Consumer<DataValue> sink) throws UaException {
+
+        Aggregate aggregate = aggregateOf(filter.getAggregateType());
+
+        if (aggregate == null) {
+            throw new UaException(StatusCodes.Bad_AggregateNotSupported);
+        }
+
+        Double requestedInterval = filter.getProcessingInterval();
+        double processingInterval = requestedInterval != null ? requestedInterval : 0.0;
+        if (processingInterval < samplingInterval) processingInterval = samplingInterval;
+        if (processingInterval < 1.0) processingInterval = 1.0;
+
+        long interval = (long) (processingInterval * TICKS_PER_MILLI);
+
+        DateTime requestedStart = filter.getStartTime();
+        long startTime = requestedStart != null && requestedStart.getUtcTime() > 0 ?
+                requestedStart.getUtcTime() : now;
+
+        if (startTime > now) {
+            // align intervals to the requested start, but start reporting now.
+            startTime -= ((startTime - now) / interval + 1) * interval;
+        }
+
+        AggregateConfiguration requested = filter.getAggregateConfiguration();
+        AggregateConfiguration configuration =
+                requested == null || requested.getUseServerCapabilitiesDefaults() == null ||
+                        requested.getUseServerCapabilitiesDefaults() ||
+                        requested.getTreatUncertainAsBad() == null ||
+                        requested.getPercentDataGood() == null ||
+                        requested.getPercentDataBad() == null ?
+                        DEFAULT_CONFIGURATION : requested;
+
+        AggregateFilterResult filterResult = new AggregateFilterResult(
+                new DateTime(startTime),
+                processingInterval,
+                configuration
+        );
+
+        return new AggregateMonitoringFilter(aggregate, interval, startTime, configuration, filterResult, sink);
+    }
+
+    private static Aggregate aggregateOf(NodeId aggregateType) {
+        if (Identifiers.AggregateFunction_Average.equals(aggregateType)) return Aggregate.Average;
+        if (Identifiers.AggregateFunction_Minimum.equals(aggregateType)) return Aggregate.Minimum;
+        if (Identifiers.AggregateFunction_Maximum.equals(aggregateType)) return Aggregate.Maximum;
+        if (Identifiers.AggregateFunction_Count.equals(aggregateType)) return Aggregate.Count;
+        if (Identifiers.AggregateFunction_Total.equals(aggregateType)) return Aggregate.Total;
+        if (Identifiers.AggregateFunction_Start.equals(aggregateType)) return Aggregate.Start;
+        if (Identifiers.AggregateFunction_End.equals(aggregateType)) return Aggregate.End;
+        if (Identifiers.AggregateFunction_Delta.equals(aggregateType)) return Aggregate.Delta;
+        if (Identifiers.AggregateFunction_TimeAverage.equals(aggregateType)) return Aggregate.TimeAverage;
+        if (Identifiers.AggregateFunction_Interpolative.equals(aggregateType)) return Aggregate.Interpolative;
+
+        return null;
+    }
+
+}
@@ -19,99 +19,398 @@
 
 package com.digitalpetri.opcua.sdk.server.util;
 
+import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.Objects;
 
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UByte;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.DataChangeTrigger;
 import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
 import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
 
-public class DataChangeMonitoringFilter {
+/**
+ * A {@link DataChangeFilter} compiled for evaluation on every sample.
+ * <p>
+ * The trigger and deadband are resolved once by {@link #compile(DataChangeFilter)}. Values are compared by a
+ * {@link ValueComparator} specialized for their built-in type, so {@link #test(DataValue, DataValue)} neither
+ * allocates nor throws.
+ */
+public final class DataChangeMonitoringFilter {
 
-    public static boolean filter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
-        return triggerFilter(lastValue, currentValue, filter) && deadbandFilter(lastValue, currentValue, filter);
-    }
+    private static final ClassValue<ValueComparator> COMPARATORS = new ClassValue<ValueComparator>() {
+        @Override
+        protected ValueComparator computeValue(Class<?> type) {
+            return comparatorFor(type);
+        }
+    };
 
-    private static boolean triggerFilter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
-        if (lastValue == null) return true;
+    private final DataChangeTrigger trigger;
+    private final boolean percent;
+    private final double deadbandValue;
 
-        DataChangeTrigger trigger = filter.getTrigger();
+    /**
+     * The absolute deadband applied to each value, or {@link Double#NaN} if every change passes the deadband.
+     */
+    private volatile double deadband;
 
-        if (trigger == DataChangeTrigger.Status) {
-            return statusChanged(lastValue, currentValue);
-        } else if (trigger == DataChangeTrigger.StatusValue) {
-            return valueChanged(lastValue, currentValue) || statusChanged(lastValue, currentValue);
+    private DataChangeMonitoringFilter(DataChangeTrigger trigger, DeadbandType deadbandType, double deadbandValue) {
+        this.trigger = trigger;
+        this.percent = deadbandType == DeadbandType.Percent;
+        this.deadbandValue = deadbandValue;
+
+        this.deadband = deadbandType == DeadbandType.Absolute ? deadbandValue : Double.NaN;
+    }
+
+    /**
+     * A PercentDeadband is a percentage of the span of {@code euRange}. Until one is set every change passes the
+     * deadband. Has no effect on other deadband types.
+     *
+     * @param euRange the EURange of the monitored node.
+     */
+    public void setEURange(@Nullable Range euRange) {
+        if (!percent) return;
+
+        if (euRange != null && euRange.getLow() != null && euRange.getHigh() != null) {
+            deadband = (deadbandValue / 100.0) * (euRange.getHigh() - euRange.getLow());
         } else {
-            // DataChangeTrigger.StatusValueTimestamp
-            return timestampChanged(lastValue, currentValue) ||
-                    valueChanged(lastValue, currentValue) ||
-                    statusChanged(lastValue, currentValue);
+            deadband = Double.NaN;
         }
     }
 
-    private static boolean deadbandFilter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
-        if (lastValue == null) return true;
-
-        int index = filter.getDeadbandType().intValue();
-        if (index < 0 || index >= DeadbandType.values().length) return true;
-        DeadbandType deadbandType = DeadbandType.values()[index];
+    /**
+     * @param lastValue    the last value that passed the filter, or {@code null} if there isn't one.
+     * @param currentValue the value just sampled.
+     * @return {@code true} if {@code currentValue} passes the filter and should be reported.
+     */
+    public boolean test(@Nullable DataValue lastValue, DataValue currentValue) {
+        return test(lastValue, currentValue, true);
+    }
 
-        if (deadbandType != DeadbandType.Absolute) return true;
+    /**
+     * @param lastValue    the last value that passed the filter, or {@code null} if there isn't one.
+     * @param currentValue the value just sampled.
+     * @param sourceTime   {@code false} if the source timestamps aren't reported and a StatusValueTimestamp trigger
+     *                     should ignore them.
+     * @return {@code true} if {@code currentValue} passes the filter and should be reported.
+     */
+    public boolean test(@Nullable DataValue lastValue, DataValue currentValue, boolean sourceTime) {
+        if (lastValue == null) return true;
 
         Object last = lastValue.getValue().getValue();
         Object current = currentValue.getValue().getValue();
 
-        if (last == null || current == null) {
-            return true;
-        } else if (last.getClass().isArray() && current.getClass().isArray()) {
-            return compareArrayDeadband(last, current, filter.getDeadbandValue());
-        } else {
-            return compareScalarDeadband(last, current, filter.getDeadbandValue());
+        boolean statusChanged = !Objects.equals(lastValue.getStatusCode(), currentValue.getStatusCode());
+
+        if (trigger == DataChangeTrigger.Status) {
+            return statusChanged;
         }
-    }
 
-    private static boolean compareArrayDeadband(Object last, Object current, double deadband) {
-        Object[] lastA = Object[].class.cast(last);
-        Object[] currentA = Object[].class.cast(current);
+        if (statusChanged) return true;
 
-        if (lastA.length != currentA.length) {
-            return true;
-        } else {
-            boolean exceeds = false;
+        if (valueChanged(last, current)) {
+            return exceedsDeadband(last, current);
+        }
 
-            for (int i = 0; i < lastA.length; i++) {
-                exceeds = exceeds || exceedsDeadband(lastA[i], currentA[i], deadband);
-            }
+        return trigger == DataChangeTrigger.StatusValueTimestamp && sourceTime &&
+                !Objects.equals(lastValue.getSourceTime(), currentValue.getSourceTime());
+    }
 
-            return exceeds;
-        }
+    private static boolean valueChanged(Object last, Object current) {
+        if (last == current) return false;
+        if (last == null || current == null) return true;
+
+        Class<?> type = current.getClass();
+
+        return last.getClass() != type || !COMPARATORS.get(type).equal(last, current);
     }
 
-    private static boolean compareScalarDeadband(Object last, Object current, double deadband) {
-        return exceedsDeadband(last, current, deadband);
+    private boolean exceedsDeadband(Object last, Object current) {
+        double deadband = this.deadband;
+
+        if (Double.isNaN(deadband) || last == null || current == null) return true;
+
+        return exceeds(last, current, deadband);
     }
 
-    private static boolean exceedsDeadband(Object last, Object current, double deadband) {
-        try {
-            double lastD = Number.class.cast(last).doubleValue();
-            double currentD = Number.class.cast(current).doubleValue();
+    private static boolean exceeds(Object last, Object current, double deadband) {
+        Class<?> type = current.getClass();
 
-            return Math.abs(lastD - currentD) > deadband;
-        } catch (Throwable t) {
+        if (last.getClass() == type) {
+            return COMPARATORS.get(type).exceeds(last, current, deadband);
+        } else if (last instanceof Number && current instanceof Number) {
+            return ValueComparator.DoubleScalar.exceeds(last, current, deadband);
+        } else {
             return true;
         }
     }
 
-    private static boolean statusChanged(DataValue lastValue, DataValue currentValue) {
-        return !Objects.equals(lastValue.getStatusCode(), currentValue.getStatusCode());
+    /**
+     * Compile {@code filter} for repeated evaluation.
+     *
+     * @param filter the {@link DataChangeFilter} to compile.
+     * @return a {@link DataChangeMonitoringFilter} for {@code filter}.
+     */
+    public static DataChangeMonitoringFilter compile(DataChangeFilter filter) {
+        DataChangeTrigger trigger = filter.getTrigger() != null ?
+                filter.getTrigger() : DataChangeTrigger.StatusValue;
+
+        DeadbandType deadbandType = DeadbandType.from(filter.getDeadbandType().intValue());
+        Double deadbandValue = filter.getDeadbandValue();
+
+        return new DataChangeMonitoringFilter(
+                trigger,
+                deadbandType != null ? deadbandType : DeadbandType.None,
+                deadbandValue != null ? deadbandValue : 0.0);
     }
 
-    private static boolean valueChanged(DataValue lastValue, DataValue currentValue) {
-        return !Objects.equals(lastValue.getValue(), currentValue.getValue());
+    public static boolean filter(DataValue lastValue, DataValue currentValue, DataChangeFilter filter) {
+        return filter(lastValue, currentValue, filter, null);
     }
 
-    private static boolean timestampChanged(DataValue lastValue, DataValue currentValue) {
-        return !Objects.equals(lastValue.getSourceTime(), currentValue.getSourceTime());
+    /**
+     * Compiles {@code filter} on every call; items evaluating a filter per sample should hold on to the result of
+     * {@link #compile(DataChangeFilter)} instead.
+     *
+     * @param euRange the EURange of the monitored node; a PercentDeadband is a percentage of its span. Without one
+     *                a PercentDeadband passes every value.
+     */
+    public static boolean filter(DataValue lastValue,
+                                 DataValue currentValue,
+                                 DataChangeFilter filter,
+                                 @Nullable Range euRange) {
+
+        DataChangeMonitoringFilter compiled = compile(filter);
+        compiled.setEURange(euRange);
+
+        return compiled.test(lastValue, currentValue);
+    }
+
+    private static ValueComparator comparatorFor(Class<?> type) {
+        if (type == Double.class || type == Float.class) {
+            return ValueComparator.DoubleScalar;
+        } else if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class ||
+                type == UInteger.class || type == UShort.class || type == UByte.class) {
+            return ValueComparator.LongScalar;
+        } else if (Number.class.isAssignableFrom(type)) {
+            return ValueComparator.DoubleScalar;
+        } else if (type == double[].class) {
+            return ValueComparator.DoubleArray;
+        } else if (type == float[].class) {
+            return ValueComparator.FloatArray;
+        } else if (type == long[].class) {
+            return ValueComparator.LongArray;
+        } else if (type == int[].class) {
+            return ValueComparator.IntArray;
+        } else if (type == short[].class) {
+            return ValueComparator.ShortArray;
+        } else if (type == byte[].class) {
+            return ValueComparator.ByteArray;
+        } else if (Object[].class.isAssignableFrom(type)) {
+            return ValueComparator.ObjectArray;
+        } else {
+            return ValueComparator.Equality;
+        }
+    }
+
+    /**
+     * Compares two non-null values of the same class.
+     */
+    private enum ValueComparator {
+
+        DoubleScalar {
+            @Override
+            boolean equal(Object last, Object current) {
+                return last.equals(current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                return Math.abs(((Number) last).doubleValue() - ((Number) current).doubleValue()) > deadband;
+            }
+        },
+
+        LongScalar {
+            @Override
+            boolean equal(Object last, Object current) {
+                return last.equals(current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                return exceedsLong(((Number) last).longValue(), ((Number) current).longValue(), deadband);
+            }
+        },
+
+        DoubleArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.equals((double[]) last, (double[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                double[] l = (double[]) last;
+                double[] c = (double[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (Math.abs(l[i] - c[i]) > deadband) return true;
+                }
+                return false;
+            }
+        },
+
+        FloatArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.equals((float[]) last, (float[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                float[] l = (float[]) last;
+                float[] c = (float[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (Math.abs((double) l[i] - (double) c[i]) > deadband) return true;
+                }
+                return false;
+            }
+        },
+
+        LongArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.equals((long[]) last, (long[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                long[] l = (long[]) last;
+                long[] c = (long[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (exceedsLong(l[i], c[i], deadband)) return true;
+                }
+                return false;
+            }
+        },
+
+        IntArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.equals((int[]) last, (int[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                int[] l = (int[]) last;
+                int[] c = (int[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (Math.abs((long) l[i] - (long) c[i]) > deadband) return true;
+                }
+                return false;
+            }
+        },
+
+        ShortArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.equals((short[]) last, (short[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                short[] l = (short[]) last;
+                short[] c = (short[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (Math.abs(l[i] - c[i]) > deadband) return true;
+                }
+                return false;
+            }
+        },
+
+        ByteArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.equals((byte[]) last, (byte[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                byte[] l = (byte[]) last;
+                byte[] c = (byte[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (Math.abs(l[i] - c[i]) > deadband) return true;
+                }
+                return false;
+            }
+        },
+
+        /**
+         * Boxed and multi-dimensional arrays; each element is compared by the comparator for its own class.
+         */
+        ObjectArray {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Arrays.deepEquals((Object[]) last, (Object[]) current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                Object[] l = (Object[]) last;
+                Object[] c = (Object[]) current;
+                if (l.length != c.length) return true;
+
+                for (int i = 0; i < l.length; i++) {
+                    if (l[i] == null || c[i] == null) {
+                        if (l[i] != c[i]) return true;
+                    } else if (DataChangeMonitoringFilter.exceeds(l[i], c[i], deadband)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        },
+
+        /**
+         * Values a deadband can't be applied to; any change exceeds it.
+         */
+        Equality {
+            @Override
+            boolean equal(Object last, Object current) {
+                return Objects.deepEquals(last, current);
+            }
+
+            @Override
+            boolean exceeds(Object last, Object current, double deadband) {
+                return true;
+            }
+        };
+
+        abstract boolean equal(Object last, Object current);
+
+        abstract boolean exceeds(Object last, Object current, double deadband);
+
+        private static boolean exceedsLong(long last, long current, double deadband) {
+            long difference = last > current ? last - current : current - last;
+
+            // a negative difference overflowed, and certainly exceeds any deadband.
+            return difference < 0 || difference > deadband;
+        }
+
     }
 
 }
@@ -0,0 +1,210 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+
+/**
+ * A {@link RingBuffer} of {@link DataValue}s that stores scalar Double, Float, Int32 and Boolean samples as parallel
+ * primitive columns instead of as object graphs.
+ * <p>
+ * A {@link DataValue} is only materialized again when an element is read back. Samples that can't be represented
+ * this way (other types, arrays, picosecond timestamps) are kept as-is in a side column allocated on first use.
+ */
+public class DataValueRingBuffer extends RingBuffer<DataValue> {
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_NULL = 1;
+    private static final byte KIND_DOUBLE = 2;
+    private static final byte KIND_FLOAT = 3;
+    private static final byte KIND_INT32 = 4;
+    private static final byte KIND_BOOLEAN = 5;
+
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private byte[] kinds;
+    private long[] values;
+    private long[] statuses;
+    private long[] sourceTimes;
+    private long[] serverTimes;
+    private DataValue[] objects;
+
+    public DataValueRingBuffer(int maxSize) {
+        super(maxSize);
+    }
+
+    /**
+     * @param value the {@link DataValue} to check.
+     * @return {@code true} if {@code value} holds a scalar Double, Float, Int32 or Boolean that can be stored in
+     * primitive columns.
+     */
+    public static boolean isPrimitive(DataValue value) {
+        return kindOf(value) >= KIND_DOUBLE;
+    }
+
+    @Override
+    protected DataValue load(int slot) {
+        byte kind = kinds[slot];
+
+        if (kind == KIND_OBJECT) return objects[slot];
+
+        long bits = values[slot];
+        Variant value;
+
+        switch (kind) {
+            case KIND_DOUBLE:
+                value = new Variant(Double.longBitsToDouble(bits));
+                break;
+            case KIND_FLOAT:
+                value = new Variant(Float.intBitsToFloat((int) bits));
+                break;
+            case KIND_INT32:
+                value = new Variant((int) bits);
+                break;
+            case KIND_BOOLEAN:
+                value = new Variant(bits != 0L);
+                break;
+            default:
+                value = Variant.NULL_VALUE;
+                break;
+        }
+
+        return new DataValue(
+                value,
+                new StatusCode(statuses[slot]),
+                toDateTime(sourceTimes[slot]),
+                toDateTime(serverTimes[slot]));
+    }
+
+    @Override
+    protected void store(int slot, DataValue e) {
+        byte kind = kindOf(e);
+
+        kinds[slot] = kind;
+
+        if (kind == KIND_OBJECT) {
+            if (objects == null) objects = new DataValue[kinds.length];
+            objects[slot] = e;
+            return;
+        }
+
+        if (objects != null) objects[slot] = null;
+
+        Object value = e.getValue().getValue();
+
+        switch (kind) {
+            case KIND_DOUBLE:
+                values[slot] = Double.doubleToRawLongBits((Double) value);
+                break;
+            case KIND_FLOAT:
+                values[slot] = Float.floatToRawIntBits((Float) value);
+                break;
+            case KIND_INT32:
+                values[slot] = (Integer) value;
+                break;
+            case KIND_BOOLEAN:
+                values[slot] = (Boolean) value ? 1L : 0L;
+                break;
+            default:
+                values[slot] = 0L;
+                break;
+        }
+
+        statuses[slot] = e.getStatusCode().getValue();
+        sourceTimes[slot] = fromDateTime(e.getSourceTime());
+        serverTimes[slot] = fromDateTime(e.getServerTime());
+    }
+
+    @Override
+    protected void discard(int slot) {
+        if (objects != null) objects[slot] = null;
+    }
+
+    @Override
+    protected void reallocate(int newCapacity, int read, int count, int oldCapacity) {
+        byte[] newKinds = new byte[newCapacity];
+        long[] newValues = new long[newCapacity];
+        long[] newStatuses = new long[newCapacity];
+        long[] newSourceTimes = new long[newCapacity];
+        long[] newServerTimes = new long[newCapacity];
+        DataValue[] newObjects = objects != null ? new DataValue[newCapacity] : null;
+
+        for (int i = 0; i < count; i++) {
+            int slot = (read + i) % oldCapacity;
+
+            newKinds[i] = kinds[slot];
+            newValues[i] = values[slot];
+            newStatuses[i] = statuses[slot];
+            newSourceTimes[i] = sourceTimes[slot];
+            newServerTimes[i] = serverTimes[slot];
+            if (newObjects != null) newObjects[i] = objects[slot];
+        }
+
+        kinds = newKinds;
+        values = newValues;
+        statuses = newStatuses;
+        sourceTimes = newSourceTimes;
+        serverTimes = newServerTimes;
+        objects = newObjects;
+    }
+
+    @Override
+    protected void release() {
+        kinds = null;
+        values = null;
+        statuses = null;
+        sourceTimes = null;
+        serverTimes = null;
+        objects = null;
+    }
+
+    private static byte kindOf(DataValue value) {
+        if (value.getStatusCode() == null ||
+                value.getSourcePicoseconds() != null ||
+                value.getServerPicoseconds() != null) {
+            return KIND_OBJECT;
+        }
+
+        Variant variant = value.getValue();
+        if (variant == null) return KIND_OBJECT;
+
+        Object o = variant.getValue();
+
+        if (o == null) return KIND_NULL;
+        if (o instanceof Double) return KIND_DOUBLE;
+        if (o instanceof Float) return KIND_FLOAT;
+        if (o instanceof Integer) return KIND_INT32;
+        if (o instanceof Boolean) return KIND_BOOLEAN;
+
+        return KIND_OBJECT;
+    }
+
+    private static long fromDateTime(DateTime dateTime) {
+        return dateTime != null ? dateTime.getUtcTime() : NO_TIME;
+    }
+
+    private static DateTime toDateTime(long utcTime) {
+        return utcTime != NO_TIME ? new DateTime(utcTime) : null;
+    }
+
+}
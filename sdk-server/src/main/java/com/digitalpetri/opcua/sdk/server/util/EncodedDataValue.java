@@ -0,0 +1,153 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.nio.ByteOrder;
+import java.util.List;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.serialization.binary.BinaryEncoder;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A sampled {@link DataValue}, as queued by the items that report it, that caches its binary encoding.
+ * <p>
+ * A sample is fanned out as a single instance to every item returning the same timestamps, and queued as-is, so the
+ * notifications built from it share that instance. {@link #encodeDataChange(List)} looks encodings up by identity,
+ * encoding each shared value once no matter how many subscriptions report it. Encodings are held only as long as the
+ * value is reachable.
+ */
+public final class EncodedDataValue {
+
+    /**
+     * Keyed by the value carried in a MonitoredItemNotification. Weak keys are compared by identity.
+     */
+    private static final Cache<DataValue, EncodedDataValue> BY_VALUE =
+            CacheBuilder.newBuilder().weakKeys().build();
+
+    private final DataValue value;
+
+    private volatile ByteString encoded;
+
+    private EncodedDataValue(DataValue value) {
+        this.value = value;
+    }
+
+    public DataValue getValue() {
+        return value;
+    }
+
+    /**
+     * @return the binary encoding of {@link #getValue()}, encoded on first use.
+     */
+    public ByteString getEncoded() {
+        ByteString e = encoded;
+
+        if (e == null) {
+            // racing threads produce identical bytes; whichever write lands is fine.
+            encoded = e = encode(value);
+        }
+
+        return e;
+    }
+
+    /**
+     * @param value a value about to be encoded.
+     * @return the shared {@link EncodedDataValue} for {@code value}, or {@code null} if it isn't worth sharing:
+     * primitive scalars are cheap to encode and are rebuilt per item when queued.
+     */
+    private static EncodedDataValue shared(DataValue value) {
+        if (value == null || DataValueRingBuffer.isPrimitive(value)) return null;
+
+        EncodedDataValue shared = BY_VALUE.getIfPresent(value);
+
+        if (shared == null) {
+            shared = new EncodedDataValue(value);
+
+            BY_VALUE.put(value, shared);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Encode the body of a DataChangeNotification for {@code notifications}, encoding each shared value only once.
+     *
+     * @param notifications the {@link MonitoredItemNotification}s.
+     * @return a binary-encoded DataChangeNotification.
+     */
+    public static ExtensionObject encodeDataChange(List<MonitoredItemNotification> notifications) {
+        ByteBuf buffer = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            BinaryEncoder encoder = new BinaryEncoder().setBuffer(buffer);
+
+            encoder.encodeInt32(null, notifications.size());
+
+            for (MonitoredItemNotification notification : notifications) {
+                encoder.encodeUInt32(null, notification.getClientHandle());
+
+                DataValue value = notification.getValue();
+                EncodedDataValue shared = shared(value);
+
+                if (shared != null) {
+                    buffer.writeBytes(shared.getEncoded().bytes());
+                } else {
+                    encoder.encodeDataValue(null, value);
+                }
+            }
+
+            // DiagnosticInfos
+            encoder.encodeInt32(null, 0);
+
+            byte[] bs = new byte[buffer.readableBytes()];
+            buffer.readBytes(bs);
+
+            return new ExtensionObject(
+                    ByteString.of(bs),
+                    Identifiers.DataChangeNotification_Encoding_DefaultBinary);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static ByteString encode(DataValue value) {
+        ByteBuf buffer = Unpooled.buffer().order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            new BinaryEncoder().setBuffer(buffer).encodeDataValue(null, value);
+
+            byte[] bs = new byte[buffer.readableBytes()];
+            buffer.readBytes(bs);
+
+            return ByteString.of(bs);
+        } finally {
+            buffer.release();
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel for large numbers of short-lived, coarse-grained timeouts.
+ * <p>
+ * A single periodic task on the {@link ScheduledExecutorService} advances the wheel; every timeout that expires in a
+ * given tick is dispatched to the {@link ExecutorService} as one batch, so the cost of the timer does not grow with
+ * the number of outstanding timeouts.
+ */
+public class HashedTimerWheel {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private final long tickNanos;
+    private final int mask;
+    private final List<Timeout>[] wheel;
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+
+    private volatile ScheduledFuture<?> tickFuture;
+    private volatile long startTime;
+
+    private final List<Timeout> expired = new ArrayList<>();
+
+    private long tick = 0L;
+
+    /**
+     * @param scheduler    the {@link ScheduledExecutorService} that drives the wheel.
+     * @param executor     the {@link ExecutorService} expired timeouts are dispatched on.
+     * @param tickDuration the duration of one tick.
+     * @param unit         the {@link TimeUnit} of {@code tickDuration}.
+     * @param wheelSize    the number of buckets in the wheel; rounded up to a power of 2.
+     */
+    public HashedTimerWheel(ScheduledExecutorService scheduler,
+                            ExecutorService executor,
+                            long tickDuration,
+                            TimeUnit unit,
+                            int wheelSize) {
+
+        this.scheduler = scheduler;
+        this.executor = executor;
+
+        tickNanos = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+
+        int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+        if (size <= 0) size = 1;
+        if (size > (1 << 20)) size = 1 << 20;
+
+        mask = size - 1;
+
+        //noinspection unchecked
+        wheel = (List<Timeout>[]) new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new LinkedList<>();
+        }
+    }
+
+    public synchronized void start() {
+        if (tickFuture == null) {
+            startTime = System.nanoTime();
+            tick = 0L;
+
+            // Timeouts left in the wheel by a previous run were bucketed against the old start time.
+            for (List<Timeout> bucket : wheel) {
+                pending.addAll(bucket);
+                bucket.clear();
+            }
+
+            tickFuture = scheduler.scheduleAtFixedRate(
+                    this::onTick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (tickFuture != null) {
+            tickFuture.cancel(false);
+            tickFuture = null;
+        }
+    }
+
+    /**
+     * Schedule {@code task} to run once after {@code delay} has elapsed.
+     * <p>
+     * The task will run no sooner than the delay and no later than one tick after it.
+     *
+     * @param task  the task to run.
+     * @param delay the delay before the task runs.
+     * @param unit  the {@link TimeUnit} of {@code delay}.
+     * @return a {@link Timeout} that can be used to cancel the task.
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(delay);
+
+        Timeout timeout = new Timeout(task, deadline);
+        pending.add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * @return the duration of one tick, in nanoseconds.
+     */
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    /**
+     * @return the number of buckets in the wheel.
+     */
+    public int getWheelSize() {
+        return wheel.length;
+    }
+
+    private synchronized void onTick() {
+        try {
+            long currentTick = tick++;
+
+            transferPending(currentTick);
+
+            long now = System.nanoTime();
+            Iterator<Timeout> iterator = wheel[(int) (currentTick & mask)].iterator();
+
+            while (iterator.hasNext()) {
+                Timeout timeout = iterator.next();
+
+                if (timeout.cancelled) {
+                    iterator.remove();
+                } else if (timeout.remainingRounds <= 0) {
+                    iterator.remove();
+
+                    if (timeout.deadline <= now + tickNanos) {
+                        expired.add(timeout);
+                    } else {
+                        // Ticks ran late or early; let it land in the correct bucket again.
+                        pending.add(timeout);
+                    }
+                } else {
+                    timeout.remainingRounds--;
+                }
+            }
+
+            if (!expired.isEmpty()) {
+                Timeout[] batch = expired.toArray(new Timeout[expired.size()]);
+
+                executor.execute(() -> {
+                    for (Timeout t : batch) expire(t);
+                });
+            }
+        } catch (Throwable t) {
+            logger.error("Error advancing timer wheel.", t);
+        } finally {
+            expired.clear();
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        if (timeout.cancelled) return;
+
+        try {
+            timeout.task.run();
+        } catch (Throwable t) {
+            logger.error("Error running timer task.", t);
+        }
+    }
+
+    private void transferPending(long currentTick) {
+        Timeout timeout;
+
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) continue;
+
+            long relativeDeadline = timeout.deadline - startTime;
+            long calculated = relativeDeadline / tickNanos;
+
+            // Never schedule into the past; anything already due lands in the current bucket.
+            long ticks = Math.max(calculated, currentTick);
+
+            timeout.remainingRounds = (ticks - currentTick) / wheel.length;
+
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    public static final class Timeout {
+
+        private volatile boolean cancelled = false;
+        private long remainingRounds;
+
+        private final Runnable task;
+        private final long deadline;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel this timeout. The task will not run if it has not been dispatched already.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the number of bytes reserved against a fixed limit.
+ * <p>
+ * A budget may have a parent, in which case every reservation must also fit in the parent's budget. This allows e.g.
+ * a per-session budget to be nested inside a server-wide budget.
+ */
+public class MemoryBudget {
+
+    private final AtomicLong used = new AtomicLong(0L);
+
+    private final long maxBytes;
+    private final MemoryBudget parent;
+
+    public MemoryBudget(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    public MemoryBudget(long maxBytes, @Nullable MemoryBudget parent) {
+        this.maxBytes = maxBytes;
+        this.parent = parent;
+    }
+
+    /**
+     * Reserve {@code bytes} from this budget and its parent, if any.
+     *
+     * @param bytes the number of bytes to reserve.
+     * @return {@code true} if the bytes were reserved, {@code false} if doing so would exceed this budget or its parent.
+     */
+    public boolean tryReserve(long bytes) {
+        while (true) {
+            long current = used.get();
+            long next = current + bytes;
+
+            if (next > maxBytes) return false;
+            if (used.compareAndSet(current, next)) break;
+        }
+
+        if (parent != null && !parent.tryReserve(bytes)) {
+            used.addAndGet(-bytes);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Release {@code bytes} previously reserved with {@link #tryReserve(long)}.
+     *
+     * @param bytes the number of bytes to release.
+     */
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+
+        if (parent != null) parent.release(bytes);
+    }
+
+    /**
+     * @return the number of bytes currently reserved.
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * @return the maximum number of bytes that can be reserved.
+     */
+    public long getMax() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the number of bytes that can still be reserved from this budget, ignoring the parent.
+     */
+    public long getAvailable() {
+        return Math.max(0L, maxBytes - used.get());
+    }
+
+    @Nullable
+    public MemoryBudget getParent() {
+        return parent;
+    }
+
+}
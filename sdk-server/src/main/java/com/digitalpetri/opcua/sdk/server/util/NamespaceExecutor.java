@@ -0,0 +1,151 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitalpetri.opcua.sdk.server.api.config.NamespaceExecutorConfig;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded executor dedicated to a single namespace, so a namespace that blocks or falls behind can only exhaust its
+ * own threads and queue.
+ * <p>
+ * Work submitted while the queue is full, or after {@link #shutdown()}, is rejected with a
+ * {@link RejectedExecutionException}; callers fail the affected operations instead of waiting. Only rejections caused
+ * by a full queue count towards {@link #getRejectedCount()}. Threads are started on demand and time out when idle.
+ */
+public class NamespaceExecutor implements Executor {
+
+    private static final long SATURATION_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AtomicLong rejectedCount = new AtomicLong(0L);
+    private final AtomicLong lastSaturationLog = new AtomicLong(System.nanoTime() - SATURATION_LOG_INTERVAL_NANOS);
+
+    private final int namespaceIndex;
+    private final NamespaceExecutorConfig config;
+    private final ThreadPoolExecutor executor;
+
+    public NamespaceExecutor(int namespaceIndex, NamespaceExecutorConfig config) {
+        this.namespaceIndex = namespaceIndex;
+        this.config = config;
+
+        executor = new ThreadPoolExecutor(
+                config.getThreadCount(), config.getThreadCount(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(config.getQueueSize()),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ua-namespace-" + namespaceIndex + "-worker-%d")
+                        .setDaemon(true).build(),
+                (r, e) -> {
+                    throw e.isShutdown() ? onShutdown() : onSaturated();
+                });
+
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(() -> {
+            try {
+                command.run();
+            } catch (Throwable t) {
+                logger.error("Error running task for namespace {}.", namespaceIndex, t);
+            }
+        });
+    }
+
+    private RejectedExecutionException onShutdown() {
+        logger.debug("Namespace {} executor shut down; rejecting task.", namespaceIndex);
+
+        return new RejectedExecutionException("namespace " + namespaceIndex + " executor shut down");
+    }
+
+    private RejectedExecutionException onSaturated() {
+        long rejected = rejectedCount.incrementAndGet();
+
+        long now = System.nanoTime();
+        long last = lastSaturationLog.get();
+
+        if (now - last >= SATURATION_LOG_INTERVAL_NANOS && lastSaturationLog.compareAndSet(last, now)) {
+            logger.warn("Namespace {} executor saturated: {} threads busy, {} tasks queued, {} rejected in total.",
+                    namespaceIndex, executor.getActiveCount(), executor.getQueue().size(), rejected);
+        }
+
+        return new RejectedExecutionException("namespace " + namespaceIndex + " executor saturated");
+    }
+
+    public int getNamespaceIndex() {
+        return namespaceIndex;
+    }
+
+    public NamespaceExecutorConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the approximate number of threads currently running tasks.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the approximate number of tasks that have completed.
+     */
+    public long getCompletedTaskCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * @return the number of tasks rejected because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return {@code true} if the queue is currently full and new work would be rejected.
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.digitalpetri.opcua.sdk.server.OpcUaServer;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import com.google.common.math.DoubleMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.math.RoundingMode.UP;
+
+/**
+ * Degrades sampling when the server can't keep up with it, rather than letting every schedule and service call fall
+ * further behind.
+ * <p>
+ * Once per evaluation interval the governor looks at the depth of the server and namespace executor queues, the number
+ * of sampling overruns, and how late publishing timers fired. If any is over its threshold the degradation level is
+ * raised by one, up to {@link #MAX_LEVEL}; after a number of consecutive calm intervals it's lowered by one.
+ * <p>
+ * While degraded:
+ * <ul>
+ * <li>polled sampling groups are only read every {@link #getSamplingDivisor(int)} samples. Priorities below the
+ * protected priority are split into {@link #MAX_LEVEL} bands; each level throttles one more band, starting with the
+ * lowest, and doubles the divisor of the bands already throttled. Subscriptions at or above the protected priority are
+ * never throttled.</li>
+ * <li>new monitored items are rejected with Bad_TooManyMonitoredItems.</li>
+ * </ul>
+ * Publishing timers and keep-alives run on their own timer wheel and workers and are never throttled.
+ */
+public class OverloadGovernor {
+
+    public static final int MAX_LEVEL = 4;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final LongAdder overruns = new LongAdder();
+    private final AtomicLong maxPublishLatencyNanos = new AtomicLong(0L);
+    private final AtomicLong rejectedMonitoredItems = new AtomicLong(0L);
+
+    private volatile int level = 0;
+    private volatile OverloadStats stats = new OverloadStats(0, 0, 0L, 0.0, 0L);
+
+    private int calmIntervals = 0;
+    private ScheduledFuture<?> future;
+
+    private final int protectedPriority;
+    private final int queueDepthThreshold;
+    private final long overrunThreshold;
+    private final long publishLatencyThresholdNanos;
+    private final int recoveryIntervals;
+    private final long evaluationIntervalMillis;
+
+    private final OpcUaServer server;
+
+    public OverloadGovernor(OpcUaServer server) {
+        this(server, server.getConfig().getLimits());
+    }
+
+    OverloadGovernor(OpcUaServer server, OpcUaServerConfigLimits limits) {
+        this.server = server;
+
+        protectedPriority = Math.max(1, limits.getOverloadProtectedPriority());
+        queueDepthThreshold = limits.getOverloadQueueDepthThreshold();
+        overrunThreshold = limits.getOverloadOverrunThreshold();
+        publishLatencyThresholdNanos = TimeUnit.MICROSECONDS.toNanos(
+                DoubleMath.roundToLong(limits.getOverloadPublishLatencyThreshold() * 1000.0, UP));
+        recoveryIntervals = Math.max(1, limits.getOverloadRecoveryIntervals());
+        evaluationIntervalMillis = DoubleMath.roundToLong(limits.getOverloadEvaluationInterval(), UP);
+    }
+
+    public synchronized void startup() {
+        if (evaluationIntervalMillis <= 0 || future != null) return;
+
+        ScheduledExecutorService scheduler = server.getScheduledExecutorService();
+
+        future = scheduler.scheduleWithFixedDelay(
+                this::evaluate, evaluationIntervalMillis, evaluationIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * Record a sample that was skipped because the previous read for its schedule was still outstanding.
+     */
+    public void recordOverrun() {
+        overruns.increment();
+    }
+
+    /**
+     * Record how late a publishing timer fired.
+     *
+     * @param latencyNanos the time, in nanoseconds, between when the timer was due and when it ran.
+     */
+    public void recordPublishLatency(long latencyNanos) {
+        maxPublishLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    /**
+     * @return {@code true} if new monitored items should be rejected.
+     */
+    public boolean isRejectingMonitoredItems() {
+        return level > 0;
+    }
+
+    /**
+     * Record monitored items that were rejected because the server is degraded.
+     *
+     * @param count the number of items rejected.
+     */
+    public void recordRejectedMonitoredItems(int count) {
+        rejectedMonitoredItems.addAndGet(count);
+    }
+
+    /**
+     * @param priority the priority of the subscription an item belongs to.
+     * @return the number of samples to skip between reads for an item at {@code priority}, plus one; 1 when it
+     * should be sampled at its own interval.
+     */
+    public int getSamplingDivisor(int priority) {
+        return getSamplingDivisor(priority, level);
+    }
+
+    /**
+     * @param priority the priority of the subscription an item belongs to.
+     * @param level    the degradation level.
+     * @return the sampling divisor for an item at {@code priority} at degradation level {@code level}; always a power
+     * of two.
+     */
+    int getSamplingDivisor(int priority, int level) {
+        if (level == 0 || priority >= protectedPriority) return 1;
+
+        int band = priority * MAX_LEVEL / protectedPriority;
+
+        return band < level ? 1 << (level - band) : 1;
+    }
+
+    /**
+     * @return the current degradation level, 0 when not degraded.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the {@link OverloadStats} as of the last evaluation.
+     */
+    public OverloadStats getStats() {
+        return stats;
+    }
+
+    private void evaluate() {
+        try {
+            evaluate(queueDepth(), overruns.sumThenReset(), maxPublishLatencyNanos.getAndSet(0L));
+        } catch (Throwable t) {
+            logger.error("Error evaluating overload.", t);
+        }
+    }
+
+    /**
+     * Raise or lower the degradation level from the signals gathered over one evaluation interval.
+     *
+     * @param queueDepth     the number of tasks queued on the server and namespace executors.
+     * @param overruns       the number of sampling overruns.
+     * @param publishLatency the latest, in nanoseconds, a publishing timer fired.
+     */
+    void evaluate(int queueDepth, long overruns, long publishLatency) {
+        boolean pressure = queueDepth > queueDepthThreshold ||
+                overruns > overrunThreshold ||
+                publishLatency > publishLatencyThresholdNanos;
+
+        int previous = level;
+
+        if (pressure) {
+            calmIntervals = 0;
+
+            if (level < MAX_LEVEL) level++;
+        } else if (level > 0 && ++calmIntervals >= recoveryIntervals) {
+            calmIntervals = 0;
+
+            level--;
+        }
+
+        if (level > previous) {
+            logger.warn("Overload level raised {} -> {}: queueDepth={}, overruns={}, publishLatency={}ms.",
+                    previous, level, queueDepth, overruns, publishLatency / 1e6);
+        } else if (level < previous) {
+            logger.info("Overload level lowered {} -> {}.", previous, level);
+        }
+
+        stats = new OverloadStats(
+                level, queueDepth, overruns, publishLatency / 1e6, rejectedMonitoredItems.get());
+    }
+
+    private int queueDepth() {
+        int depth = 0;
+
+        ExecutorService executor = server.getExecutorService();
+
+        if (executor instanceof ThreadPoolExecutor) {
+            depth += ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+
+        for (NamespaceExecutor namespaceExecutor : server.getNamespaceManager().getExecutors()) {
+            depth += namespaceExecutor.getQueueDepth();
+        }
+
+        return depth;
+    }
+
+    /**
+     * The degradation state of the server and the signals it was decided from.
+     */
+    public static final class OverloadStats {
+
+        private final int level;
+        private final int queueDepth;
+        private final long overruns;
+        private final double publishLatency;
+        private final long rejectedMonitoredItems;
+
+        public OverloadStats(int level,
+                             int queueDepth,
+                             long overruns,
+                             double publishLatency,
+                             long rejectedMonitoredItems) {
+
+            this.level = level;
+            this.queueDepth = queueDepth;
+            this.overruns = overruns;
+            this.publishLatency = publishLatency;
+            this.rejectedMonitoredItems = rejectedMonitoredItems;
+        }
+
+        /**
+         * @return the degradation level, 0 when not degraded.
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the number of tasks queued on the server and namespace executors.
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * @return the number of sampling overruns during the last evaluation interval.
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * @return the latest, in milliseconds, a publishing timer fired during the last evaluation interval.
+         */
+        public double getPublishLatency() {
+            return publishLatency;
+        }
+
+        /**
+         * @return the number of monitored items rejected while degraded.
+         */
+        public long getRejectedMonitoredItems() {
+            return rejectedMonitoredItems;
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.opcua.sdk.server.api.DataChangeSink;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.DataItemUpdate;
+import com.digitalpetri.opcua.sdk.server.items.BaseMonitoredItem;
+import com.google.common.collect.Sets;
+
+/**
+ * A {@link DataChangeSink} whose credit is the remaining queue capacity of its registered items, kept current by
+ * each item's {@link BaseMonitoredItem.CapacityListener} as values are queued and published.
+ * <p>
+ * Alongside the total, the sink counts the items that have no capacity left, so it can report saturation as soon as
+ * any one item is full.
+ */
+public class QueueCreditDataChangeSink implements DataChangeSink, BaseMonitoredItem.CapacityListener {
+
+    private final Set<DataItem> items = Sets.newConcurrentHashSet();
+    private final AtomicInteger credit = new AtomicInteger(0);
+    private final AtomicInteger saturated = new AtomicInteger(0);
+
+    private volatile CreditListener creditListener;
+
+    @Override
+    public void register(DataItem item) {
+        if (items.add(item) && item instanceof BaseMonitoredItem) {
+            BaseMonitoredItem<?> monitoredItem = (BaseMonitoredItem<?>) item;
+
+            synchronized (monitoredItem) {
+                int remaining = monitoredItem.getRemainingCapacity();
+
+                monitoredItem.addCapacityListener(this);
+                credit.addAndGet(remaining);
+
+                if (remaining <= 0) saturated.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void unregister(DataItem item) {
+        if (items.remove(item) && item instanceof BaseMonitoredItem) {
+            BaseMonitoredItem<?> monitoredItem = (BaseMonitoredItem<?>) item;
+
+            synchronized (monitoredItem) {
+                int remaining = monitoredItem.getRemainingCapacity();
+
+                monitoredItem.removeCapacityListener(this);
+                credit.addAndGet(-remaining);
+
+                if (remaining <= 0) unsaturated();
+            }
+        }
+    }
+
+    @Override
+    public int push(Collection<DataItemUpdate> updates) {
+        for (DataItemUpdate update : updates) {
+            DataItem item = update.getItem();
+
+            if (items.contains(item)) {
+                item.setValue(update.getValue());
+            }
+        }
+
+        return getCredit();
+    }
+
+    @Override
+    public int getCredit() {
+        return saturated.get() > 0 ? 0 : credit.get();
+    }
+
+    @Override
+    public int getCredit(DataItem item) {
+        if (!items.contains(item)) return 0;
+
+        return item instanceof BaseMonitoredItem ?
+                ((BaseMonitoredItem<?>) item).getRemainingCapacity() : Integer.MAX_VALUE;
+    }
+
+    @Override
+    public void setCreditListener(@Nullable CreditListener creditListener) {
+        this.creditListener = creditListener;
+    }
+
+    @Override
+    public void onCapacityChanged(BaseMonitoredItem<?> item, int delta) {
+        credit.addAndGet(delta);
+
+        // called with the item's monitor held, so its capacity can't change again underneath us.
+        int remaining = item.getRemainingCapacity();
+        int previous = remaining - delta;
+
+        if (previous > 0 && remaining <= 0) {
+            saturated.incrementAndGet();
+        } else if (previous <= 0 && remaining > 0) {
+            unsaturated();
+        }
+    }
+
+    /**
+     * An item stopped being saturated; notify the {@link CreditListener} if it was the last one.
+     */
+    private void unsaturated() {
+        if (saturated.decrementAndGet() == 0) {
+            CreditListener listener = creditListener;
+            int current = credit.get();
+
+            if (listener != null && current > 0) {
+                listener.onCreditAvailable(current);
+            }
+        }
+    }
+
+}
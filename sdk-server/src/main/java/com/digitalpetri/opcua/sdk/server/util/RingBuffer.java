@@ -19,23 +19,32 @@
 
 package com.digitalpetri.opcua.sdk.server.util;
 
-import java.util.Arrays;
 import java.util.NoSuchElementException;
 
+/**
+ * A fixed-size ring buffer.
+ * <p>
+ * Storage is allocated lazily: nothing is allocated until the first element is added, and the backing storage then
+ * doubles as elements are added until it reaches {@code maxSize}, so a large maximum costs nothing until it is
+ * actually used.
+ * <p>
+ * Subclasses may replace the backing storage by overriding {@link #load(int)}, {@link #store(int, Object)},
+ * {@link #discard(int)}, {@link #reallocate(int, int, int, int)} and {@link #release()}.
+ */
 public class RingBuffer<E> {
 
+    private static final int INITIAL_CAPACITY = 8;
+
     private int read = 0;
     private int write = 0;
     private int count = 0;
+    private int capacity = 0;
 
-    private final E[] buffer;
+    private E[] buffer;
     private final int maxSize;
 
     public RingBuffer(int maxSize) {
         this.maxSize = maxSize;
-
-        //noinspection unchecked
-        buffer = (E[]) new Object[maxSize];
     }
 
     /**
@@ -49,7 +58,7 @@ public class RingBuffer<E> {
         if (index >= count) {
             throw new IndexOutOfBoundsException("index=" + index);
         } else {
-            return buffer[(read + index) % maxSize];
+            return load((read + index) % capacity);
         }
     }
 
@@ -64,7 +73,7 @@ public class RingBuffer<E> {
         if (index >= count) {
             throw new IndexOutOfBoundsException("index=" + index);
         } else {
-            buffer[(read + index) % maxSize] = e;
+            store((read + index) % capacity, e);
         }
     }
 
@@ -74,11 +83,15 @@ public class RingBuffer<E> {
      * @param e element to add.
      */
     public void add(E e) {
-        buffer[write] = e;
-        write = (write + 1) % maxSize;
+        if (count == capacity && capacity < maxSize) {
+            grow();
+        }
 
-        if (count == maxSize) {
-            read = (read + 1) % maxSize;
+        store(write, e);
+        write = (write + 1) % capacity;
+
+        if (count == capacity) {
+            read = (read + 1) % capacity;
         } else {
             count += 1;
         }
@@ -92,20 +105,20 @@ public class RingBuffer<E> {
         if (count <= 0) {
             throw new NoSuchElementException();
         } else {
-            E e = buffer[read];
-            buffer[read] = null;
-            read = (read + 1) % maxSize;
+            E e = load(read);
+            discard(read);
+            read = (read + 1) % capacity;
             count -= 1;
             return e;
         }
     }
 
     /**
-     * Clear the contents of this buffer.
+     * Clear the contents of this buffer and release its storage.
      */
     public void clear() {
-        read = write = count = 0;
-        Arrays.fill(buffer, null);
+        read = write = count = capacity = 0;
+        release();
     }
 
     /**
@@ -129,4 +142,75 @@ public class RingBuffer<E> {
         return count;
     }
 
+    /**
+     * @return The number of elements the backing storage can currently hold without growing.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    private void grow() {
+        int newCapacity = capacity == 0 ?
+                Math.min(maxSize, INITIAL_CAPACITY) :
+                (int) Math.min((long) capacity * 2, maxSize);
+
+        reallocate(newCapacity, read, count, capacity);
+
+        capacity = newCapacity;
+        read = 0;
+        write = count % newCapacity;
+    }
+
+    /**
+     * @param slot the storage slot.
+     * @return the element stored in {@code slot}.
+     */
+    protected E load(int slot) {
+        return buffer[slot];
+    }
+
+    /**
+     * @param slot the storage slot.
+     * @param e    the element to store in {@code slot}.
+     */
+    protected void store(int slot, E e) {
+        buffer[slot] = e;
+    }
+
+    /**
+     * The element in {@code slot} has been removed; drop any references it holds.
+     *
+     * @param slot the storage slot.
+     */
+    protected void discard(int slot) {
+        buffer[slot] = null;
+    }
+
+    /**
+     * Replace the backing storage with storage for {@code newCapacity} elements, moving the {@code count} elements
+     * starting at slot {@code read} (wrapping at {@code oldCapacity}) to slots {@code 0..count-1}.
+     *
+     * @param newCapacity the new capacity.
+     * @param read        the slot of the oldest element.
+     * @param count       the number of elements.
+     * @param oldCapacity the current capacity, 0 if no storage has been allocated.
+     */
+    protected void reallocate(int newCapacity, int read, int count, int oldCapacity) {
+        //noinspection unchecked
+        E[] grown = (E[]) new Object[newCapacity];
+
+        for (int i = 0; i < count; i++) {
+            grown[i] = buffer[(read + i) % oldCapacity];
+        }
+
+        buffer = grown;
+    }
+
+    /**
+     * Release the backing storage.
+     */
+    protected void release() {
+        buffer = null;
+    }
+
 }
@@ -19,15 +19,27 @@
 
 package com.digitalpetri.opcua.sdk.server.util;
 
+import javax.annotation.Nullable;
 import java.math.RoundingMode;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.digitalpetri.opcua.sdk.core.AttributeIds;
@@ -35,133 +47,980 @@ import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
 import com.digitalpetri.opcua.sdk.server.OpcUaServer;
 import com.digitalpetri.opcua.sdk.server.api.AttributeManager;
 import com.digitalpetri.opcua.sdk.server.api.AttributeManager.ReadContext;
+import com.digitalpetri.opcua.sdk.server.api.BlockReader;
 import com.digitalpetri.opcua.sdk.server.api.DataItem;
 import com.digitalpetri.opcua.sdk.server.api.MonitoredItem;
+import com.digitalpetri.opcua.sdk.server.api.Namespace;
+import com.digitalpetri.opcua.sdk.server.api.ReadPlan;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import com.digitalpetri.opcua.sdk.server.model.AttributeObserver;
+import com.digitalpetri.opcua.sdk.server.model.UaNode;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
 import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UShort;
 import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
 import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
 import com.digitalpetri.opcua.stack.core.util.ExecutionQueue;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.math.DoubleMath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Samples the {@link DataItem}s of a namespace.
+ * <p>
+ * By default every item is polled with {@link AttributeManager#read} at its sampling interval. Namespaces that keep
+ * their nodes in memory can also supply a node lookup, in which case items monitoring the Value of a plain
+ * {@link UaVariableNode} are pushed changes from the node's {@link AttributeObserver} instead, at most once per
+ * sampling interval, and are never polled.
+ * <p>
+ * Changes to the set of items are applied incrementally: only the affected items are regrouped, a sampling schedule
+ * is only started or cancelled when its interval appears or disappears, and existing schedules keep their phase.
+ * <p>
+ * Polled items are sampled at a fixed rate. A sample that comes due while the previous read for the same interval is
+ * still outstanding is skipped and counted as an overrun; see {@link #getSamplingStats()}. While the server's
+ * {@link OverloadGovernor} reports overload, groups whose members all belong to low-priority subscriptions are read
+ * less often.
+ * <p>
+ * Items polled from a {@link BlockReader} are planned into block reads each time their schedule changes, and every
+ * sample reuses the plan.
+ */
 public class SubscriptionModel {
 
+    private static final TimestampsToReturn[] TIMESTAMPS = TimestampsToReturn.values();
+
+    /**
+     * Whether a {@link UaVariableNode} class serves the value last set on it, i.e. doesn't compute it in
+     * {@link UaVariableNode#getValue()}. Only such nodes can be sampled by observing their value changes.
+     */
+    private static final ClassValue<Boolean> VALUE_OBSERVABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("getValue").getDeclaringClass() == UaVariableNode.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     private final Set<DataItem> itemSet = Collections.newSetFromMap(Maps.newConcurrentMap());
 
-    private final List<ScheduledUpdate> schedule = Lists.newCopyOnWriteArrayList();
+    /*
+     * Only modified from tasks on the execution queue.
+     */
+    private final Map<DataItem, Placement> placements = Maps.newHashMap();
+    private final Map<Double, ScheduledUpdate> schedule = Maps.newConcurrentMap();
+    private final Map<PushKey, PushedUpdate> pushed = Maps.newHashMap();
 
     private final ExecutorService executor;
+    private final Executor readExecutor;
     private final ScheduledExecutorService scheduler;
     private final ExecutionQueue executionQueue;
 
     private final OpcUaServer server;
+    private final OpcUaServerConfigLimits limits;
+    private final Supplier<OverloadGovernor> overloadGovernor;
     private final AttributeManager attributeServices;
+    private final BlockReader blockReader;
+    private final Function<NodeId, Optional<UaNode>> nodeLookup;
 
     public SubscriptionModel(OpcUaServer server, AttributeManager attributeServices) {
-        this.server = server;
+        this(server, attributeServices, nodeId -> Optional.empty());
+    }
+
+    /**
+     * @param server            the {@link OpcUaServer}.
+     * @param attributeServices the {@link AttributeManager} polled items are read from.
+     * @param nodeLookup        resolves the in-memory {@link UaNode} that {@code attributeServices} reads a NodeId
+     *                          from, enabling push sampling for items on that node.
+     */
+    public SubscriptionModel(OpcUaServer server,
+                             AttributeManager attributeServices,
+                             Function<NodeId, Optional<UaNode>> nodeLookup) {
 
+        this(server,
+                server.getConfig().getLimits(),
+                server::getOverloadGovernor,
+                server.getExecutorService(),
+                server.getScheduledExecutorService(),
+                readExecutor(server, attributeServices),
+                attributeServices,
+                nodeLookup);
+    }
+
+    /**
+     * @param server            the {@link OpcUaServer} read contexts are created for.
+     * @param limits            the {@link OpcUaServerConfigLimits}.
+     * @param overloadGovernor  supplies the server's {@link OverloadGovernor}, which may not exist yet when namespaces
+     *                          are constructed.
+     * @param executor          runs model changes and delivers sampled values.
+     * @param scheduler         schedules sampling.
+     * @param readExecutor      runs reads from {@code attributeServices}.
+     * @param attributeServices the {@link AttributeManager} polled items are read from.
+     * @param nodeLookup        resolves the in-memory {@link UaNode} that {@code attributeServices} reads a NodeId
+     *                          from.
+     */
+    SubscriptionModel(OpcUaServer server,
+                      OpcUaServerConfigLimits limits,
+                      Supplier<OverloadGovernor> overloadGovernor,
+                      ExecutorService executor,
+                      ScheduledExecutorService scheduler,
+                      Executor readExecutor,
+                      AttributeManager attributeServices,
+                      Function<NodeId, Optional<UaNode>> nodeLookup) {
+
+        this.server = server;
+        this.limits = limits;
+        this.overloadGovernor = overloadGovernor;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.readExecutor = readExecutor;
         this.attributeServices = attributeServices;
+        this.nodeLookup = nodeLookup;
 
-        executor = server.getExecutorService();
-        scheduler = server.getScheduledExecutorService();
+        blockReader = attributeServices instanceof BlockReader ? (BlockReader) attributeServices : null;
 
         executionQueue = new ExecutionQueue(executor);
     }
 
+    private static Executor readExecutor(OpcUaServer server, AttributeManager attributeServices) {
+        if (attributeServices instanceof Namespace) {
+            UShort namespaceIndex = ((Namespace) attributeServices).getNamespaceIndex();
+
+            // resolved per read; the namespace isn't added to the NamespaceManager until after it's constructed.
+            return command -> server.getNamespaceManager().getExecutor(namespaceIndex).execute(command);
+        } else {
+            return server.getExecutorService();
+        }
+    }
+
     public void onDataItemsCreated(List<DataItem> items) {
         executionQueue.submit(() -> {
             itemSet.addAll(items);
-            reschedule();
+            update(items);
         });
     }
 
     public void onDataItemsModified(List<DataItem> items) {
-        executionQueue.submit(this::reschedule);
+        executionQueue.submit(() -> update(items));
     }
 
     public void onDataItemsDeleted(List<DataItem> items) {
         executionQueue.submit(() -> {
             itemSet.removeAll(items);
-            reschedule();
+            update(items);
         });
     }
 
     public void onMonitoringModeChanged(List<MonitoredItem> items) {
-        executionQueue.submit(this::reschedule);
+        executionQueue.submit(() -> {
+            List<DataItem> dataItems = items.stream()
+                    .filter(item -> item instanceof DataItem)
+                    .map(item -> (DataItem) item)
+                    .filter(itemSet::contains)
+                    .collect(Collectors.toList());
+
+            update(dataItems);
+        });
     }
 
-    private void reschedule() {
-        Map<Double, List<DataItem>> bySamplingInterval = itemSet.stream()
-                .filter(DataItem::isSamplingEnabled)
-                .collect(Collectors.groupingBy(DataItem::getSamplingInterval));
+    /**
+     * Move each of {@code items} to where it should currently be sampled, if that changed, and take a first sample
+     * for every item that was (re)placed.
+     *
+     * @param items the {@link DataItem}s that were created, modified, or deleted.
+     */
+    private void update(List<DataItem> items) {
+        Set<ScheduledUpdate> touched = Sets.newHashSet();
+        List<DataItem> placed = Lists.newArrayList();
+
+        for (DataItem item : items) {
+            Placement current = placements.get(item);
+            Placement next = itemSet.contains(item) && item.isSamplingEnabled() ? placementOf(item) : null;
+
+            if (Objects.equals(current, next)) {
+                // still sampled in the same place, but its subscription's priority may have changed.
+                if (current != null) reprioritize(current, touched);
+                continue;
+            }
+
+            if (current != null) {
+                unplace(item, current, touched);
+                placements.remove(item);
+            }
+
+            if (next != null) {
+                place(item, next, touched);
+                placements.put(item, next);
+                placed.add(item);
+            }
+        }
+
+        for (ScheduledUpdate update : touched) {
+            if (update.isEmpty()) {
+                update.cancel();
+                schedule.remove(update.samplingInterval);
+            } else {
+                update.commit();
+            }
+        }
+
+        sampleOnce(placed);
+    }
 
-        List<ScheduledUpdate> updates = bySamplingInterval.keySet().stream().map(samplingInterval -> {
-            List<DataItem> items = bySamplingInterval.get(samplingInterval);
+    /**
+     * @return a {@link SamplingStats} for each sampling interval currently being polled.
+     */
+    public List<SamplingStats> getSamplingStats() {
+        return schedule.values().stream()
+                .map(ScheduledUpdate::getStats)
+                .collect(Collectors.toList());
+    }
 
-            return new ScheduledUpdate(samplingInterval, items);
-        }).collect(Collectors.toList());
+    private Placement placementOf(DataItem item) {
+        SamplingKey key = new SamplingKey(item.getReadValueId());
+        Optional<UaVariableNode> node = item.isPeriodicSamplingRequired() ?
+                Optional.empty() : observableNode(item.getReadValueId());
 
-        schedule.forEach(ScheduledUpdate::cancel);
-        schedule.clear();
-        schedule.addAll(updates);
-        schedule.forEach(scheduler::execute);
+        return new Placement(key, item.getSamplingInterval(), node.orElse(null));
     }
 
+    private void place(DataItem item, Placement placement, Set<ScheduledUpdate> touched) {
+        if (placement.node != null) {
+            PushKey key = new PushKey(placement.key, placement.samplingInterval);
+
+            pushed.computeIfAbsent(key, k -> {
+                PushedUpdate update = new PushedUpdate(placement.node, k);
+                update.start();
+                return update;
+            }).group.add(item);
+        } else {
+            ScheduledUpdate update = schedule.computeIfAbsent(placement.samplingInterval, ScheduledUpdate::new);
+
+            update.add(placement.key, item);
+            touched.add(update);
+        }
+    }
+
+    private void reprioritize(Placement placement, Set<ScheduledUpdate> touched) {
+        if (placement.node != null) return;
+
+        ScheduledUpdate update = schedule.get(placement.samplingInterval);
+
+        if (update != null && update.reprioritize(placement.key)) {
+            touched.add(update);
+        }
+    }
+
+    private void unplace(DataItem item, Placement placement, Set<ScheduledUpdate> touched) {
+        if (placement.node != null) {
+            PushKey key = new PushKey(placement.key, placement.samplingInterval);
+            PushedUpdate update = pushed.get(key);
+
+            if (update != null) {
+                update.group.remove(item);
+
+                if (update.group.isEmpty()) {
+                    update.cancel();
+                    pushed.remove(key);
+                }
+            }
+        } else {
+            ScheduledUpdate update = schedule.get(placement.samplingInterval);
+
+            if (update != null) {
+                update.remove(placement.key, item);
+                touched.add(update);
+            }
+        }
+    }
+
+    /**
+     * Read the current value for {@code items} once, so newly placed items don't have to wait for the next sample of
+     * the schedule they joined.
+     */
+    private void sampleOnce(List<DataItem> items) {
+        if (items.isEmpty()) return;
+
+        List<ReadValueId> readValueIds = items.stream()
+                .map(DataItem::getReadValueId)
+                .collect(Collectors.toList());
+
+        ReadContext context = new ReadContext(
+                server, null, new DiagnosticsContext<>());
+
+        context.getFuture().thenAcceptAsync(values -> {
+            Iterator<DataItem> ii = items.iterator();
+            Iterator<DataValue> vi = values.iterator();
+
+            while (ii.hasNext() && vi.hasNext()) {
+                DataItem item = ii.next();
+
+                item.setValue(derive(item.getReadValueId(), vi.next(), item.getTimestampsToReturn()));
+            }
+        }, executor);
+
+        try {
+            readExecutor.execute(() -> attributeServices.read(context, 0d, TimestampsToReturn.Both, readValueIds));
+        } catch (RejectedExecutionException e) {
+            // the namespace is saturated; these items get their first value from the next scheduled sample.
+            logger.debug("Initial sample of {} items rejected.", readValueIds.size());
+        }
+    }
+
+    private Optional<UaVariableNode> observableNode(ReadValueId readValueId) {
+        if (readValueId.getAttributeId().intValue() != AttributeIds.Value) return Optional.empty();
+
+        return nodeLookup.apply(readValueId.getNodeId())
+                .filter(node -> node instanceof UaVariableNode)
+                .filter(node -> VALUE_OBSERVABLE.get(node.getClass()))
+                .map(node -> (UaVariableNode) node);
+    }
+
+    private static DataValue derive(ReadValueId readValueId, DataValue value, TimestampsToReturn timestamps) {
+        if (timestamps == null) return value;
+
+        return readValueId.getAttributeId().intValue() == AttributeIds.Value ?
+                DataValue.derivedValue(value, timestamps) :
+                DataValue.derivedNonValue(value, timestamps);
+    }
+
+    /**
+     * Polls every {@link SamplingGroup} with the same sampling interval with a single read, at a fixed rate.
+     * <p>
+     * Groups are added and removed on the execution queue and published with {@link #commit()}; a running sample
+     * always works from the last committed snapshot.
+     */
     private class ScheduledUpdate implements Runnable {
 
         private volatile boolean cancelled = false;
+        private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), null);
 
-        private final long samplingInterval;
-        private final List<DataItem> items;
+        private final Map<SamplingKey, SamplingGroup> groups = new LinkedHashMap<>();
+        private ScheduledFuture<?> future;
 
-        private ScheduledUpdate(double samplingInterval, List<DataItem> items) {
-            this.samplingInterval = DoubleMath.roundToLong(samplingInterval, RoundingMode.UP);
-            this.items = items;
+        private final AtomicBoolean reading = new AtomicBoolean(false);
+        private final AtomicLong overruns = new AtomicLong(0L);
+
+        /*
+         * Only written from run(), which a fixed-rate schedule never executes concurrently with itself.
+         */
+        private volatile long samples = 0L;
+        private long ticks = 0L;
+        private volatile long firstSampleNanos = 0L;
+        private volatile long lastSampleNanos = 0L;
+        private volatile long lastIntervalNanos = 0L;
+
+        private final double samplingInterval;
+        private final long samplingIntervalMillis;
+        private final long readTimeoutMillis;
+
+        private ScheduledUpdate(double samplingInterval) {
+            this.samplingInterval = samplingInterval;
+
+            samplingIntervalMillis = DoubleMath.roundToLong(samplingInterval, RoundingMode.UP);
+
+            readTimeoutMillis = Math.max(samplingIntervalMillis, DoubleMath.roundToLong(
+                    limits.getSamplingReadTimeout(), RoundingMode.UP));
+        }
+
+        private void add(SamplingKey key, DataItem item) {
+            groups.computeIfAbsent(key, SamplingGroup::new).add(item);
+        }
+
+        private void remove(SamplingKey key, DataItem item) {
+            SamplingGroup group = groups.get(key);
+
+            if (group != null) {
+                group.remove(item);
+
+                if (group.isEmpty()) groups.remove(key);
+            }
+        }
+
+        /**
+         * @return {@code true} if the priority of the group sampling {@code key} changed.
+         */
+        private boolean reprioritize(SamplingKey key) {
+            SamplingGroup group = groups.get(key);
+
+            return group != null && group.updatePriority();
+        }
+
+        private boolean isEmpty() {
+            return groups.isEmpty();
+        }
+
+        /**
+         * Publish the current groups to the sampling thread and start sampling if this is a new schedule. Newly
+         * placed items have already been sampled once, so the first sample is one interval out.
+         */
+        private void commit() {
+            snapshot = snapshot(Lists.newArrayList(groups.values()));
+
+            if (future == null) {
+                future = scheduler.scheduleAtFixedRate(
+                        this, samplingIntervalMillis, samplingIntervalMillis, TimeUnit.MILLISECONDS);
+            }
         }
 
         private void cancel() {
             cancelled = true;
+
+            if (future != null) future.cancel(false);
         }
 
         @Override
         public void run() {
-            List<PendingRead> pending = items.stream()
-                    .map(item -> new PendingRead(item.getReadValueId()))
-                    .collect(Collectors.toList());
+            if (cancelled) return;
 
-            List<ReadValueId> ids = pending.stream()
-                    .map(PendingRead::getInput)
-                    .collect(Collectors.toList());
+            if (!reading.compareAndSet(false, true)) {
+                overruns.incrementAndGet();
+                overloadGovernor.get().recordOverrun();
+                return;
+            }
+
+            try {
+                sample();
+            } catch (Throwable t) {
+                // an exception escaping run() would silently cancel the fixed-rate schedule.
+                reading.set(false);
+                logger.error("Error sampling, samplingInterval={}.", samplingInterval, t);
+            }
+        }
+
+        /**
+         * Take one sample. {@code reading} has been set and is cleared once the read completes, fails, times out, or
+         * could not be started.
+         */
+        private void sample() {
+            long now = System.nanoTime();
+
+            if (samples++ == 0L) {
+                firstSampleNanos = now;
+            } else {
+                lastIntervalNanos = now - lastSampleNanos;
+            }
+            lastSampleNanos = now;
+
+            Snapshot snapshot = throttle(this.snapshot, ticks++);
+
+            if (snapshot.groups.isEmpty()) {
+                reading.set(false);
+                return;
+            }
 
             ReadContext context = new ReadContext(
                     server, null, new DiagnosticsContext<>());
 
-            context.getFuture().thenAcceptAsync(values -> {
-                Iterator<DataItem> ii = items.iterator();
-                Iterator<DataValue> vi = values.iterator();
+            // a read that never completes would otherwise count every later sample as an overrun.
+            ScheduledFuture<?> timeout = scheduler.schedule(
+                    () -> context.getFuture().completeExceptionally(new UaException(StatusCodes.Bad_Timeout)),
+                    readTimeoutMillis, TimeUnit.MILLISECONDS);
 
-                while (ii.hasNext() && vi.hasNext()) {
-                    DataItem item = ii.next();
-                    DataValue value = vi.next();
+            context.getFuture().whenCompleteAsync((values, ex) -> {
+                timeout.cancel(false);
+                reading.set(false);
 
-                    TimestampsToReturn timestamps = item.getTimestampsToReturn();
+                if (values != null && snapshot.plan != null) {
+                    ReadPlan plan = snapshot.plan;
+                    int count = Math.min(values.size(), plan.getReadValueIds().size());
 
-                    if (timestamps != null) {
-                        value = (item.getReadValueId().getAttributeId().intValue() == AttributeIds.Value) ?
-                                DataValue.derivedValue(value, timestamps) :
-                                DataValue.derivedNonValue(value, timestamps);
+                    for (int i = 0; i < count; i++) {
+                        snapshot.groups.get(plan.getIndex(i)).setValue(values.get(i));
                     }
+                } else if (values != null) {
+                    Iterator<SamplingGroup> gi = snapshot.groups.iterator();
+                    Iterator<DataValue> vi = values.iterator();
 
-                    item.setValue(value);
+                    while (gi.hasNext() && vi.hasNext()) {
+                        gi.next().setValue(vi.next());
+                    }
+                } else {
+                    logger.warn("Sampling read failed, samplingInterval={}.", samplingInterval, ex);
                 }
+            }, executor);
+
+            try {
+                readExecutor.execute(() -> {
+                    if (snapshot.plan != null) {
+                        blockReader.readPlanned(context, snapshot.plan);
+                    } else {
+                        attributeServices.read(context, 0d, TimestampsToReturn.Both, snapshot.readValueIds);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                timeout.cancel(false);
+                reading.set(false);
+                overruns.incrementAndGet();
+                overloadGovernor.get().recordOverrun();
+            }
+        }
 
-                if (!cancelled) {
-                    scheduler.schedule(this, samplingInterval, TimeUnit.MILLISECONDS);
+        /**
+         * While the server is overloaded, leave out the groups whose priority says they should skip this sample.
+         * <p>
+         * Sampling divisors are powers of two, so which groups are due only depends on the level and on how many times
+         * two divides {@code tick}. The result is cached on the committed snapshot for each combination, and only
+         * rebuilt and replanned once it changes.
+         *
+         * @param snapshot the committed {@link Snapshot}.
+         * @param tick     the number of samples due before this one.
+         * @return the {@link Snapshot} of groups to read this sample.
+         */
+        private Snapshot throttle(Snapshot snapshot, long tick) {
+            OverloadGovernor governor = overloadGovernor.get();
+
+            int level = governor.getLevel();
+
+            if (level == 0) return snapshot;
+
+            int shift = tick == 0L ?
+                    OverloadGovernor.MAX_LEVEL :
+                    Math.min(Long.numberOfTrailingZeros(tick), OverloadGovernor.MAX_LEVEL);
+
+            int index = level * (OverloadGovernor.MAX_LEVEL + 1) + shift;
+
+            if (snapshot.throttled == null) {
+                snapshot.throttled = new Snapshot[(OverloadGovernor.MAX_LEVEL + 1) * (OverloadGovernor.MAX_LEVEL + 1)];
+            }
+
+            Snapshot throttled = snapshot.throttled[index];
+
+            if (throttled == null) {
+                List<SamplingGroup> groups = Lists.newArrayListWithCapacity(snapshot.groups.size());
+
+                for (SamplingGroup group : snapshot.groups) {
+                    if (governor.getSamplingDivisor(group.getPriority(), level) <= 1 << shift) {
+                        groups.add(group);
+                    }
                 }
-            }, executor);
 
-            executor.execute(() -> attributeServices.read(context, 0d, TimestampsToReturn.Both, ids));
+                throttled = groups.size() == snapshot.groups.size() ? snapshot : snapshot(groups);
+
+                snapshot.throttled[index] = throttled;
+            }
+
+            return throttled;
+        }
+
+        private SamplingStats getStats() {
+            long samples = this.samples;
+
+            double averageInterval = samples > 1 ?
+                    (lastSampleNanos - firstSampleNanos) / (samples - 1) / 1e6 : 0.0;
+
+            return new SamplingStats(
+                    samplingInterval,
+                    snapshot.groups.size(),
+                    samples,
+                    overruns.get(),
+                    lastIntervalNanos / 1e6,
+                    averageInterval);
+        }
+
+    }
+
+    /**
+     * A point-in-time view of how well the polled items at one sampling interval are keeping up.
+     * <p>
+     * A source that can't complete a read within the sampling interval shows up as a growing overrun count and
+     * actual intervals that are a multiple of the requested one.
+     */
+    public static final class SamplingStats {
+
+        private final double samplingInterval;
+        private final int sampledValues;
+        private final long samples;
+        private final long overruns;
+        private final double lastInterval;
+        private final double averageInterval;
+
+        public SamplingStats(double samplingInterval,
+                             int sampledValues,
+                             long samples,
+                             long overruns,
+                             double lastInterval,
+                             double averageInterval) {
+
+            this.samplingInterval = samplingInterval;
+            this.sampledValues = sampledValues;
+            this.samples = samples;
+            this.overruns = overruns;
+            this.lastInterval = lastInterval;
+            this.averageInterval = averageInterval;
+        }
+
+        /**
+         * @return the sampling interval, in milliseconds.
+         */
+        public double getSamplingInterval() {
+            return samplingInterval;
+        }
+
+        /**
+         * @return the number of distinct values read per sample.
+         */
+        public int getSampledValues() {
+            return sampledValues;
+        }
+
+        /**
+         * @return the number of samples taken.
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        /**
+         * @return the number of samples skipped because the previous read was still outstanding.
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * @return the time, in milliseconds, between the last two samples taken.
+         */
+        public double getLastInterval() {
+            return lastInterval;
+        }
+
+        /**
+         * @return the average time, in milliseconds, between samples taken.
+         */
+        public double getAverageInterval() {
+            return averageInterval;
+        }
+
+    }
+
+    /**
+     * Snapshot {@code groups}, planning block reads for them if the values are read from a {@link BlockReader}.
+     */
+    private Snapshot snapshot(List<SamplingGroup> groups) {
+        if (blockReader == null || groups.isEmpty()) return new Snapshot(groups, null);
+
+        List<ReadValueId> readValueIds = groups.stream()
+                .map(g -> g.readValueId)
+                .collect(Collectors.toList());
+
+        try {
+            ReadPlan plan = blockReader.planReads(readValueIds);
+
+            logger.debug("Planned {} block reads and {} single reads for {} values.",
+                    plan.getBlocks().size(), plan.getUnplanned().size(), readValueIds.size());
+
+            return new Snapshot(groups, plan);
+        } catch (Throwable t) {
+            logger.warn("Error planning block reads; reading {} values unplanned.", readValueIds.size(), t);
+
+            return new Snapshot(groups, null);
+        }
+    }
+
+    private static final class Snapshot {
+
+        private final List<SamplingGroup> groups;
+        private final List<ReadValueId> readValueIds;
+        private final ReadPlan plan;
+
+        /**
+         * Throttled views of this snapshot, by level and tick; see {@link ScheduledUpdate#throttle(Snapshot, long)}.
+         * Only accessed from the sampling thread.
+         */
+        private Snapshot[] throttled;
+
+        private Snapshot(List<SamplingGroup> groups, @Nullable ReadPlan plan) {
+            this.groups = groups;
+            this.plan = plan;
+            this.readValueIds = plan != null ?
+                    plan.getReadValueIds() :
+                    groups.stream().map(g -> g.readValueId).collect(Collectors.toList());
+        }
+
+    }
+
+    /**
+     * Samples a {@link SamplingGroup} whenever its node's value changes, no more often than once per sampling
+     * interval. Changes arriving within an interval of the last sample are coalesced into one sample at the end of it.
+     */
+    private class PushedUpdate implements AttributeObserver {
+
+        private volatile boolean cancelled = false;
+
+        private long lastSampleNanos;
+        private boolean samplePending = false;
+
+        private final long samplingIntervalNanos;
+        private final UaVariableNode node;
+        private final SamplingGroup group;
+
+        private PushedUpdate(UaVariableNode node, PushKey key) {
+            this.node = node;
+            this.group = new SamplingGroup(key.samplingKey);
+
+            samplingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                    DoubleMath.roundToLong(key.samplingInterval, RoundingMode.UP));
+
+            lastSampleNanos = System.nanoTime();
+        }
+
+        private void start() {
+            // node holds observers weakly; this update is kept reachable through the pushed map until cancelled.
+            node.addAttributeObserver(this);
+        }
+
+        private void cancel() {
+            cancelled = true;
+
+            node.removeAttributeObserver(this);
+        }
+
+        @Override
+        public void attributeChanged(UaNode node, int attributeId, Object value) {
+            if (attributeId != AttributeIds.Value || cancelled) return;
+
+            long delay;
+
+            synchronized (this) {
+                if (samplePending) return;
+
+                samplePending = true;
+                delay = lastSampleNanos + samplingIntervalNanos - System.nanoTime();
+            }
+
+            if (delay <= 0) {
+                executor.execute(this::sample);
+            } else {
+                scheduler.schedule(this::sample, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void sample() {
+            synchronized (this) {
+                samplePending = false;
+                lastSampleNanos = System.nanoTime();
+            }
+
+            if (cancelled) return;
+
+            ReadValueId readValueId = group.readValueId;
+
+            DataValue value = node.readAttribute(
+                    readValueId.getAttributeId().intValue(),
+                    TimestampsToReturn.Both,
+                    readValueId.getIndexRange());
+
+            group.setValue(value);
+        }
+
+    }
+
+    /**
+     * All {@link DataItem}s, from any session, that sample the same value at the same rate. The value is read once and
+     * fanned out to every member.
+     */
+    private static class SamplingGroup {
+
+        private static final DataItem[] NO_ITEMS = new DataItem[0];
+
+        /**
+         * Copied on write; only written from the execution queue. Iterated on every sample, so it's kept as an array
+         * rather than a list whose iterator would be allocated each time.
+         */
+        private volatile DataItem[] items = NO_ITEMS;
+
+        /**
+         * The highest priority of any member; the group is sampled on time if any member must be. Kept up to date as
+         * members join and leave or their priority changes, so throttling doesn't scan the members every sample.
+         */
+        private volatile int priority = 0;
+
+        private final ReadValueId readValueId;
+
+        private SamplingGroup(SamplingKey key) {
+            this.readValueId = new ReadValueId(key.nodeId, key.attributeId, key.indexRange, key.dataEncoding);
+        }
+
+        private void add(DataItem item) {
+            DataItem[] items = Arrays.copyOf(this.items, this.items.length + 1);
+            items[items.length - 1] = item;
+
+            this.items = items;
+
+            priority = Math.max(priority, item.getPriority());
+        }
+
+        private void remove(DataItem item) {
+            List<DataItem> items = Lists.newArrayList(this.items);
+
+            if (items.remove(item)) {
+                this.items = items.isEmpty() ? NO_ITEMS : items.toArray(new DataItem[items.size()]);
+
+                updatePriority();
+            }
+        }
+
+        private boolean isEmpty() {
+            return items.length == 0;
+        }
+
+        private int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Recompute the priority from the members' current priorities.
+         *
+         * @return {@code true} if it changed.
+         */
+        private boolean updatePriority() {
+            int priority = 0;
+
+            for (DataItem item : items) {
+                priority = Math.max(priority, item.getPriority());
+            }
+
+            boolean changed = priority != this.priority;
+            this.priority = priority;
+
+            return changed;
+        }
+
+        /**
+         * Fan {@code value} out to every member that would keep it. The value is only copied, once per
+         * {@link TimestampsToReturn}, if some member keeps it; an unchanged sample allocates nothing.
+         */
+        private void setValue(DataValue value) {
+            DataValue[] derived = null;
+
+            for (DataItem item : items) {
+                if (!item.passesFilter(value)) continue;
+
+                if (derived == null) derived = new DataValue[TIMESTAMPS.length];
+
+                TimestampsToReturn timestamps = item.getTimestampsToReturn();
+
+                if (timestamps != null) {
+                    int i = timestamps.ordinal();
+
+                    if (derived[i] == null) {
+                        derived[i] = derive(readValueId, value, timestamps);
+                    }
+
+                    item.setValue(derived[i]);
+                } else {
+                    item.setValue(value);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Where a {@link DataItem} is currently sampled: the value it samples, at which rate, and the node it is pushed
+     * from, if any.
+     */
+    private static final class Placement {
+
+        private final SamplingKey key;
+        private final double samplingInterval;
+        private final UaVariableNode node;
+
+        private Placement(SamplingKey key, double samplingInterval, UaVariableNode node) {
+            this.key = key;
+            this.samplingInterval = samplingInterval;
+            this.node = node;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Placement that = (Placement) o;
+
+            return Double.compare(samplingInterval, that.samplingInterval) == 0 &&
+                    key.equals(that.key) &&
+                    node == that.node;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, samplingInterval, System.identityHashCode(node));
+        }
+
+    }
+
+    private static final class PushKey {
+
+        private final SamplingKey samplingKey;
+        private final double samplingInterval;
+
+        private PushKey(SamplingKey samplingKey, double samplingInterval) {
+            this.samplingKey = samplingKey;
+            this.samplingInterval = samplingInterval;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            PushKey that = (PushKey) o;
+
+            return Double.compare(samplingInterval, that.samplingInterval) == 0 &&
+                    samplingKey.equals(that.samplingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(samplingKey, samplingInterval);
+        }
+
+    }
+
+    private static final class SamplingKey {
+
+        private final NodeId nodeId;
+        private final UInteger attributeId;
+        private final String indexRange;
+        private final QualifiedName dataEncoding;
+
+        private SamplingKey(ReadValueId readValueId) {
+            this.nodeId = readValueId.getNodeId();
+            this.attributeId = readValueId.getAttributeId();
+            this.indexRange = readValueId.getIndexRange();
+            this.dataEncoding = readValueId.getDataEncoding();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            SamplingKey that = (SamplingKey) o;
+
+            return Objects.equals(nodeId, that.nodeId) &&
+                    Objects.equals(attributeId, that.attributeId) &&
+                    Objects.equals(indexRange, that.indexRange) &&
+                    Objects.equals(dataEncoding, that.dataEncoding);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nodeId, attributeId, indexRange, dataEncoding);
         }
 
     }
@@ -0,0 +1,219 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.api;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.DiagnosticsContext;
+import com.digitalpetri.opcua.sdk.server.api.AttributeManager.ReadContext;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ReadPlanTest {
+
+    private final Map<ReadValueId, BlockAddress> addresses = Maps.newHashMap();
+
+    private int nextId = 0;
+
+    @Test
+    public void testAdjacentAndOverlappingValuesMerged() {
+        ReadValueId a = value("hr", 0, 1);
+        ReadValueId b = value("hr", 1, 1);
+        ReadValueId c = value("hr", 2, 2);
+        ReadValueId d = value("hr", 2, 1);
+
+        ReadPlan plan = plan(ImmutableList.of(a, b, c, d), ReadCostModel.DEFAULT);
+
+        assertEquals(plan.getBlocks().size(), 1);
+        assertBlock(plan.getBlocks().get(0), 0, 4);
+        assertEquals(plan.getRequestCount(), 1);
+    }
+
+    @Test
+    public void testGapBridgedOnlyWhenCheaper() {
+        // a request costs as much as reading 4 units.
+        ReadCostModel costModel = new ReadCostModel(4.0, 1.0, 125, 16);
+
+        ReadValueId a = value("hr", 0, 1);
+        ReadValueId b = value("hr", 5, 1);
+        ReadValueId c = value("hr", 11, 1);
+
+        ReadPlan plan = plan(ImmutableList.of(a, b, c), costModel);
+
+        // the gap of 4 before b is bridged, the gap of 5 before c isn't.
+        assertEquals(plan.getBlocks().size(), 2);
+        assertBlock(plan.getBlocks().get(0), 0, 6);
+        assertBlock(plan.getBlocks().get(1), 11, 1);
+    }
+
+    @Test
+    public void testGapNeverBridgedBeyondMaxGap() {
+        // requests are expensive enough that only the max gap stops bridging.
+        ReadCostModel costModel = new ReadCostModel(1000.0, 1.0, 1000, 16);
+
+        ReadValueId a = value("hr", 0, 1);
+        ReadValueId b = value("hr", 17, 1);
+        ReadValueId c = value("hr", 35, 1);
+
+        ReadPlan plan = plan(ImmutableList.of(a, b, c), costModel);
+
+        assertEquals(plan.getBlocks().size(), 2);
+        assertBlock(plan.getBlocks().get(0), 0, 18);
+        assertBlock(plan.getBlocks().get(1), 35, 1);
+    }
+
+    @Test
+    public void testBlockSplitAtMaxLength() {
+        ReadCostModel costModel = new ReadCostModel(16.0, 1.0, 10, 16);
+
+        ReadValueId a = value("hr", 0, 4);
+        ReadValueId b = value("hr", 6, 4);
+        ReadValueId c = value("hr", 10, 1);
+
+        ReadPlan plan = plan(ImmutableList.of(a, b, c), costModel);
+
+        assertEquals(plan.getBlocks().size(), 2);
+        assertBlock(plan.getBlocks().get(0), 0, 10);
+        assertBlock(plan.getBlocks().get(1), 10, 1);
+
+        for (ReadPlan.Block block : plan.getBlocks()) {
+            assertTrue(block.getLength() <= costModel.getMaxBlockLength());
+        }
+    }
+
+    @Test
+    public void testAreasPlannedSeparatelyAndIndicesMapBack() {
+        ReadValueId a = value("hr", 5, 1);
+        ReadValueId b = unaddressed();
+        ReadValueId c = value("coils", 0, 1);
+        ReadValueId d = value("hr", 4, 1);
+
+        List<ReadValueId> readValueIds = ImmutableList.of(a, b, c, d);
+
+        ReadPlan plan = plan(readValueIds, ReadCostModel.DEFAULT);
+
+        assertEquals(plan.getBlocks().size(), 2);
+        assertEquals(plan.getBlocks().get(0).getArea(), "hr");
+        assertEquals(plan.getBlocks().get(0).getReadValueIds(), ImmutableList.of(d, a));
+        assertEquals(plan.getBlocks().get(1).getArea(), "coils");
+        assertEquals(plan.getUnplanned(), ImmutableList.of(b));
+        assertEquals(plan.getRequestCount(), 3);
+
+        // blocks in turn, in address order, then the unplanned values.
+        assertEquals(plan.getReadValueIds(), ImmutableList.of(d, a, c, b));
+
+        for (int i = 0; i < plan.getReadValueIds().size(); i++) {
+            assertEquals(readValueIds.get(plan.getIndex(i)), plan.getReadValueIds().get(i));
+        }
+    }
+
+    @Test
+    public void testReadPlannedReadsEachBlockThenUnplanned() throws Exception {
+        ReadValueId a = value("hr", 100, 1);
+        ReadValueId b = unaddressed();
+        ReadValueId c = value("hr", 0, 1);
+        ReadValueId d = value("coils", 0, 1);
+        ReadValueId e = unaddressed();
+
+        List<List<ReadValueId>> reads = Lists.newArrayList();
+
+        BlockReader reader = new BlockReader() {
+            @Override
+            public BlockAddress getBlockAddress(ReadValueId readValueId) {
+                return addresses.get(readValueId);
+            }
+
+            @Override
+            public void read(ReadContext context,
+                             Double maxAge,
+                             TimestampsToReturn timestamps,
+                             List<ReadValueId> readValueIds) {
+
+                reads.add(readValueIds);
+
+                context.getFuture().complete(readValueIds.stream()
+                        .map(id -> new DataValue(new Variant(id.getNodeId())))
+                        .collect(Collectors.toList()));
+            }
+
+            @Override
+            public void write(WriteContext context, List<WriteValue> writeValues) {}
+        };
+
+        ReadPlan plan = reader.planReads(ImmutableList.of(a, b, c, d, e));
+
+        ReadContext context = new ReadContext(null, null, new DiagnosticsContext<>());
+        reader.readPlanned(context, plan);
+
+        // one read per block, then one for the unplanned values.
+        assertEquals(reads, ImmutableList.of(
+                ImmutableList.of(c),
+                ImmutableList.of(a),
+                ImmutableList.of(d),
+                ImmutableList.of(b, e)));
+
+        List<DataValue> values = context.getFuture().get();
+        assertEquals(values.size(), plan.getReadValueIds().size());
+
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i).getValue().getValue(), plan.getReadValueIds().get(i).getNodeId());
+        }
+    }
+
+    private ReadPlan plan(List<ReadValueId> readValueIds, ReadCostModel costModel) {
+        return ReadPlan.create(readValueIds, addresses::get, area -> costModel);
+    }
+
+    private ReadValueId value(String area, long offset, int length) {
+        ReadValueId readValueId = unaddressed();
+
+        addresses.put(readValueId, new BlockAddress(area, offset, length));
+
+        return readValueId;
+    }
+
+    private ReadValueId unaddressed() {
+        return new ReadValueId(
+                new NodeId(2, "Value" + nextId++),
+                uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+    }
+
+    private static void assertBlock(ReadPlan.Block block, long offset, int length) {
+        assertEquals(block.getOffset(), offset);
+        assertEquals(block.getLength(), length);
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.items;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.sun.management.ThreadMXBean;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Measures the bytes allocated per sample on the path from a sampled value to a {@link MonitoredDataItem}.
+ * <p>
+ * Allocation counts depend on the JIT having run, so the measurements are in the {@code benchmark} group, which only
+ * runs with {@code -Pbenchmark}.
+ */
+public class MonitoredDataItemAllocationTest {
+
+    private static final int WARMUP = 200_000;
+    private static final int SAMPLES = 1_000_000;
+
+    @Test(groups = "benchmark")
+    public void testUnchangedSampleAllocatesNothing() throws Exception {
+        MonitoredDataItem item = newItem();
+
+        // distinct instances with equal values, the way successive reads of an unchanged value arrive.
+        DataValue[] values = new DataValue[1024];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new DataValue(new Variant(42.0), StatusCode.GOOD, new DateTime(i), new DateTime(i));
+        }
+
+        item.setValue(values[0]);
+
+        double bytesPerSample = measure(i -> {
+            DataValue value = values[i & (values.length - 1)];
+
+            if (item.passesFilter(value)) item.setValue(value);
+        });
+
+        assertTrue(bytesPerSample < 1.0, "unchanged samples allocated " + bytesPerSample + " bytes/sample");
+    }
+
+    @Test(groups = "benchmark")
+    public void testUnchangedSampleWithoutSourceTimeAllocatesNothing() throws Exception {
+        MonitoredDataItem item = newItem(TimestampsToReturn.Server, DataChangeTrigger.StatusValueTimestamp);
+
+        // only the source time changes, and the item doesn't return it.
+        DataValue[] values = new DataValue[1024];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new DataValue(new Variant(42.0), StatusCode.GOOD, new DateTime(i), new DateTime(i));
+        }
+
+        // samplers set the value with the item's timestamps applied.
+        item.setValue(DataValue.derivedValue(values[0], TimestampsToReturn.Server));
+
+        double bytesPerSample = measure(i -> {
+            DataValue value = values[i & (values.length - 1)];
+
+            if (item.passesFilter(value)) item.setValue(DataValue.derivedValue(value, TimestampsToReturn.Server));
+        });
+
+        assertTrue(bytesPerSample < 1.0, "unchanged samples allocated " + bytesPerSample + " bytes/sample");
+    }
+
+    @Test
+    public void testSourceTimeOnlyChangeFollowsTimestampsToReturn() throws Exception {
+        DataValue first = new DataValue(new Variant(42.0), StatusCode.GOOD, new DateTime(1000L), new DateTime(1000L));
+        DataValue second = new DataValue(new Variant(42.0), StatusCode.GOOD, new DateTime(2000L), new DateTime(2000L));
+
+        TimestampsToReturn[] all = {
+                TimestampsToReturn.Source, TimestampsToReturn.Server, TimestampsToReturn.Both, TimestampsToReturn.Neither};
+
+        for (TimestampsToReturn timestamps : all) {
+            MonitoredDataItem item = newItem(timestamps, DataChangeTrigger.StatusValueTimestamp);
+
+            item.setValue(DataValue.derivedValue(first, timestamps));
+
+            boolean sourceTime = timestamps == TimestampsToReturn.Source || timestamps == TimestampsToReturn.Both;
+
+            // the pre-check agrees with the filter applied to the value the sampler would set.
+            assertEquals(item.passesFilter(second), sourceTime, timestamps.toString());
+
+            List<UaStructure> notifications = new ArrayList<>();
+
+            item.setValue(DataValue.derivedValue(second, timestamps));
+            item.getNotifications(notifications, Integer.MAX_VALUE);
+
+            assertEquals(notifications.size(), sourceTime ? 2 : 1, timestamps.toString());
+        }
+    }
+
+    @Test
+    public void testChangedSampleIsReportedOnce() throws Exception {
+        MonitoredDataItem item = newItem();
+
+        DataValue[] values = new DataValue[1024];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new DataValue(new Variant((double) i), StatusCode.GOOD, new DateTime(i), new DateTime(i));
+        }
+
+        List<UaStructure> notifications = new ArrayList<>();
+
+        // numeric samples are queued in primitive columns; each must come back out as the value that went in.
+        for (int i = 0; i < values.length * 4; i++) {
+            DataValue value = values[i & (values.length - 1)];
+
+            if (item.passesFilter(value)) item.setValue(value);
+
+            item.getNotifications(notifications, Integer.MAX_VALUE);
+
+            assertEquals(notifications.size(), 1);
+
+            MonitoredItemNotification notification = (MonitoredItemNotification) notifications.get(0);
+
+            assertEquals(notification.getValue().getValue().getValue(), value.getValue().getValue());
+            assertEquals(notification.getValue().getSourceTime(), value.getSourceTime());
+
+            notifications.clear();
+        }
+    }
+
+    private static MonitoredDataItem newItem() throws Exception {
+        return newItem(TimestampsToReturn.Both, null);
+    }
+
+    private static MonitoredDataItem newItem(TimestampsToReturn timestamps, DataChangeTrigger trigger) throws Exception {
+        ExtensionObject filter = trigger != null ?
+                ExtensionObject.encode(new DataChangeFilter(trigger, uint(DeadbandType.None.getValue()), 0.0)) :
+                null;
+
+        return new MonitoredDataItem(
+                uint(1),
+                new ReadValueId(new NodeId(2, "Value"), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE),
+                MonitoringMode.Reporting,
+                timestamps,
+                uint(1),
+                100.0,
+                filter,
+                uint(16),
+                true);
+    }
+
+    private static double measure(Sample sample) {
+        Object bean = ManagementFactory.getThreadMXBean();
+
+        if (!(bean instanceof ThreadMXBean) || !((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("thread allocation counters not supported");
+        }
+
+        ThreadMXBean threadBean = (ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP; i++) sample.run(i);
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+
+        for (int i = 0; i < SAMPLES; i++) sample.run(i);
+
+        long after = threadBean.getThreadAllocatedBytes(threadId);
+
+        return (double) (after - before) / SAMPLES;
+    }
+
+    private interface Sample {
+        void run(int i);
+    }
+
+}
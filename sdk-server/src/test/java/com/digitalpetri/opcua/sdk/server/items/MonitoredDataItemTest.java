@@ -0,0 +1,139 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.items;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.model.AttributeObserver;
+import com.digitalpetri.opcua.sdk.server.model.UaVariableNode;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.LocalizedText;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class MonitoredDataItemTest {
+
+    @Test
+    public void testInvalidEURangeThenModifyUnregistersObserver() throws Exception {
+        EURangeNode node = new EURangeNode(new Range(0.0, 100.0));
+        MonitoredDataItem item = newItem(percent(10.0), node);
+
+        assertEquals(node.observers, 1);
+        assertNotNull(item.getEURange());
+
+        node.setValue(new DataValue(Variant.NULL_VALUE));
+        assertNull(item.getEURange());
+        assertEquals(node.observers, 1);
+
+        modify(item, deadband(DeadbandType.None, 0.0));
+        assertEquals(node.observers, 0);
+
+        node.setValue(new DataValue(new Variant(ExtensionObject.encode(new Range(0.0, 50.0)))));
+        modify(item, percent(10.0));
+        assertEquals(node.observers, 1);
+        assertEquals(item.getEURange().getHigh(), 50.0);
+    }
+
+    @Test
+    public void testInvalidEURangeThenValidModifyRegistersOnce() throws Exception {
+        EURangeNode node = new EURangeNode(new Range(0.0, 100.0));
+        MonitoredDataItem item = newItem(percent(10.0), node);
+
+        node.setValue(new DataValue(Variant.NULL_VALUE));
+        node.setValue(new DataValue(new Variant(ExtensionObject.encode(new Range(0.0, 50.0)))));
+
+        modify(item, percent(5.0));
+        modify(item, percent(10.0));
+        assertEquals(node.observers, 1);
+
+        modify(item, null);
+        assertEquals(node.observers, 0);
+        assertNull(item.getEURange());
+    }
+
+    private static MonitoredDataItem newItem(ExtensionObject filter, UaVariableNode euRangeNode) throws Exception {
+        return new MonitoredDataItem(
+                uint(1),
+                new ReadValueId(new NodeId(2, "Value"), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE),
+                MonitoringMode.Reporting,
+                TimestampsToReturn.Both,
+                uint(1),
+                100.0,
+                filter,
+                uint(1),
+                true,
+                euRangeNode);
+    }
+
+    private static void modify(MonitoredDataItem item, ExtensionObject filter) throws Exception {
+        item.modify(TimestampsToReturn.Both, uint(1), 100.0, filter, uint(1), true);
+    }
+
+    private static ExtensionObject percent(double deadbandValue) {
+        return deadband(DeadbandType.Percent, deadbandValue);
+    }
+
+    private static ExtensionObject deadband(DeadbandType deadbandType, double deadbandValue) {
+        return ExtensionObject.encode(new DataChangeFilter(
+                DataChangeTrigger.StatusValue, uint(deadbandType.getValue()), deadbandValue));
+    }
+
+    /**
+     * An EURange property node that counts its registered observers.
+     */
+    private static class EURangeNode extends UaVariableNode {
+
+        int observers = 0;
+
+        EURangeNode(Range range) {
+            super(null, new NodeId(2, "EURange"), new QualifiedName(0, "EURange"), LocalizedText.english("EURange"));
+
+            setValue(new DataValue(new Variant(ExtensionObject.encode(range))));
+        }
+
+        @Override
+        public synchronized void addAttributeObserver(AttributeObserver observer) {
+            super.addAttributeObserver(observer);
+            observers++;
+        }
+
+        @Override
+        public synchronized void removeAttributeObserver(AttributeObserver observer) {
+            super.removeAttributeObserver(observer);
+            observers--;
+        }
+
+    }
+
+}
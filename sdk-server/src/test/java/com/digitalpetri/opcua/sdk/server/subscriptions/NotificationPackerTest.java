@@ -0,0 +1,182 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import com.digitalpetri.opcua.stack.core.serialization.UaStructure;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.MonitoredItemNotification;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class NotificationPackerTest {
+
+    private int calls = 0;
+
+    private final NotificationPacker<Item> packer = new NotificationPacker<>(
+            (item, notifications, max) -> {
+                calls++;
+                for (int i = 0; i < max && !item.queue.isEmpty(); i++) {
+                    notifications.add(item.queue.poll());
+                }
+                return item.queue.isEmpty();
+            },
+            NotificationSizeEstimator::estimate);
+
+    @Test
+    public void testSmallScalarsMixedWithLargeArrays() {
+        long maxBytes = 10_000L;
+
+        Item scalar1 = new Item(scalar(1.0));
+        Item arrays = new Item();
+        for (int i = 0; i < 50; i++) arrays.queue.add(array(100, 10));
+        Item scalar2 = new Item(scalar(2.0), scalar(3.0));
+
+        long arraySize = NotificationSizeEstimator.estimate(array(100, 10));
+        assertTrue(arraySize > maxBytes / 4, "array notification estimated at " + arraySize);
+
+        List<UaStructure> expected = Lists.newArrayList();
+        expected.addAll(scalar1.queue);
+        expected.addAll(arrays.queue);
+        expected.addAll(scalar2.queue);
+
+        List<List<UaStructure>> messages = packAll(
+                Iterators.peekingIterator(Arrays.asList(scalar1, arrays, scalar2).iterator()), 1000, maxBytes);
+
+        List<UaStructure> delivered = Lists.newArrayList();
+
+        for (List<UaStructure> message : messages) {
+            assertTrue(size(message) <= maxBytes, "message of " + size(message) + " bytes");
+            delivered.addAll(message);
+        }
+
+        assertEquals(delivered, expected);
+
+        // 50 arrays of which at most 2 fit next to each other.
+        assertTrue(messages.size() >= 25, messages.size() + " messages");
+    }
+
+    @Test
+    public void testOversizedNotificationSentAlone() {
+        UaStructure large = array(100, 10);
+        UaStructure small = scalar(1.0);
+
+        Item item = new Item(small, large, small);
+
+        List<List<UaStructure>> messages = packAll(
+                Iterators.peekingIterator(Arrays.asList(item).iterator()), 1000, 1000L);
+
+        assertEquals(messages.size(), 3);
+        assertEquals(messages.get(0), Arrays.asList(small));
+        assertEquals(messages.get(1), Arrays.asList(large));
+        assertEquals(messages.get(2), Arrays.asList(small));
+    }
+
+    @Test
+    public void testHeldBackNotificationStartsNextMessage() {
+        UaStructure a = array(10, 10);
+        UaStructure b = array(10, 10);
+
+        long maxBytes = NotificationSizeEstimator.estimate(a) + 10;
+
+        PeekingIterator<Item> iterator = Iterators.peekingIterator(Arrays.asList(new Item(a), new Item(b)).iterator());
+
+        List<UaStructure> notifications = Lists.newArrayList();
+
+        packer.pack(iterator, notifications, 1000, maxBytes);
+        assertEquals(notifications, Arrays.asList(a));
+        assertTrue(packer.hasHeldBack());
+        assertFalse(iterator.hasNext());
+
+        notifications.clear();
+        packer.pack(iterator, notifications, 1000, maxBytes);
+        assertEquals(notifications, Arrays.asList(b));
+        assertFalse(packer.hasHeldBack());
+    }
+
+    @Test
+    public void testCountLimitWithoutByteLimitGathersInBatches() {
+        Item item = new Item();
+        for (int i = 0; i < 10; i++) item.queue.add(scalar(i));
+
+        List<List<UaStructure>> messages = packAll(
+                Iterators.peekingIterator(Arrays.asList(item).iterator()), 4, Long.MAX_VALUE);
+
+        assertEquals(messages.size(), 3);
+        assertEquals(messages.get(0).size(), 4);
+        assertEquals(messages.get(2).size(), 2);
+        assertEquals(calls, 3);
+    }
+
+    private List<List<UaStructure>> packAll(PeekingIterator<Item> iterator, int maxNotifications, long maxBytes) {
+        List<List<UaStructure>> messages = Lists.newArrayList();
+
+        while (iterator.hasNext() || packer.hasHeldBack()) {
+            List<UaStructure> notifications = Lists.newArrayList();
+
+            packer.pack(iterator, notifications, maxNotifications, maxBytes);
+
+            assertFalse(notifications.isEmpty());
+            assertTrue(notifications.size() <= maxNotifications);
+
+            messages.add(notifications);
+        }
+
+        return messages;
+    }
+
+    private static long size(List<UaStructure> notifications) {
+        return notifications.stream().mapToLong(NotificationSizeEstimator::estimate).sum();
+    }
+
+    private static UaStructure scalar(double value) {
+        return new MonitoredItemNotification(uint(1), new DataValue(new Variant(value)));
+    }
+
+    private static UaStructure array(int length, int stringLength) {
+        String[] strings = new String[length];
+        char[] chars = new char[stringLength];
+        Arrays.fill(chars, 'x');
+        Arrays.fill(strings, new String(chars));
+
+        return new MonitoredItemNotification(uint(2), new DataValue(new Variant(strings)));
+    }
+
+    private static class Item {
+        final Deque<UaStructure> queue = new ArrayDeque<>();
+
+        Item(UaStructure... notifications) {
+            queue.addAll(Arrays.asList(notifications));
+        }
+    }
+
+}
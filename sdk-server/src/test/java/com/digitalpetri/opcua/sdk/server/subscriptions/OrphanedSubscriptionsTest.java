@@ -0,0 +1,132 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import org.testng.annotations.Test;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class OrphanedSubscriptionsTest {
+
+    @Test
+    public void testPerUserCapEvictsOnlyThatUsersOldest() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        assertTrue(orphans.add(1, "a-1", "alice", 100L, 2, 10).isEmpty());
+        assertTrue(orphans.add(2, "b-1", "bob", 100L, 2, 10).isEmpty());
+        assertTrue(orphans.add(3, "a-2", "alice", 100L, 2, 10).isEmpty());
+
+        assertEquals(orphans.add(4, "a-3", "alice", 100L, 2, 10), asList("a-1"));
+        assertEquals(orphans.size(), 3);
+        assertEquals(orphans.remove(2), "b-1");
+    }
+
+    @Test
+    public void testGlobalCapEvictsOldestOfAnyUser() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        orphans.add(1, "a-1", "alice", 100L, 2, 3);
+        orphans.add(2, "a-2", "alice", 100L, 2, 3);
+        orphans.add(3, "b-1", "bob", 100L, 2, 3);
+
+        // carol is under her own cap; only the global cap applies, and alice's second orphan must survive it.
+        assertEquals(orphans.add(4, "c-1", "carol", 100L, 2, 3), asList("a-1"));
+        assertEquals(orphans.size(), 3);
+        assertEquals(orphans.remove(2), "a-2");
+    }
+
+    @Test
+    public void testBothCapsHit() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        orphans.add(1, "b-1", "bob", 100L, 2, 3);
+        orphans.add(2, "a-1", "alice", 100L, 2, 3);
+        orphans.add(3, "a-2", "alice", 100L, 2, 3);
+
+        // evicting alice's oldest for her own cap also makes room under the global cap.
+        assertEquals(orphans.add(4, "a-3", "alice", 100L, 2, 3), asList("a-1"));
+        assertEquals(orphans.remove(1), "b-1");
+    }
+
+    @Test
+    public void testNullIdentityCappedTogether() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        orphans.add(1, "anon-1", null, 100L, 1, 10);
+
+        assertEquals(orphans.add(2, "anon-2", null, 100L, 1, 10), asList("anon-1"));
+    }
+
+    @Test
+    public void testReAddReplacesEntry() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        orphans.add(1, "a-1", "alice", 100L, 1, 10);
+
+        assertTrue(orphans.add(1, "a-1", "alice", 200L, 1, 10).isEmpty());
+        assertEquals(orphans.size(), 1);
+        assertEquals(orphans.nextExpiry(), 200L);
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        orphans.add(1, "a", "alice", 100L, 10, 10);
+        orphans.add(2, "b", "bob", 300L, 10, 10);
+        orphans.add(3, "c", "carol", 200L, 10, 10);
+
+        assertEquals(orphans.nextExpiry(), 100L);
+        assertTrue(orphans.removeExpired(99L).isEmpty());
+
+        assertEquals(orphans.removeExpired(200L), asList("a", "c"));
+        assertEquals(orphans.nextExpiry(), 300L);
+
+        assertEquals(orphans.removeExpired(Long.MAX_VALUE - 1), asList("b"));
+        assertTrue(orphans.isEmpty());
+    }
+
+    @Test
+    public void testExpiryAcrossNanoTimeWrap() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        long now = Long.MAX_VALUE - 10;
+
+        orphans.add(1, "a", "alice", now + 100L, 10, 10);
+
+        assertTrue(orphans.removeExpired(now).isEmpty());
+        assertEquals(orphans.removeExpired(now + 100L), asList("a"));
+    }
+
+    @Test
+    public void testClaimedOrphanDoesNotExpire() {
+        Orphans<Integer, String> orphans = new Orphans<>();
+
+        orphans.add(1, "a", "alice", 100L, 10, 10);
+
+        assertEquals(orphans.remove(1), "a");
+        assertNull(orphans.remove(1));
+        assertTrue(orphans.removeExpired(1000L).isEmpty());
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PriorityWaitListTest {
+
+    @Test
+    public void testHighestPriorityFirstThenFifo() {
+        PriorityWaitList<Integer, String> waitList = new PriorityWaitList<>();
+
+        waitList.add(1, "low-1", 0);
+        waitList.add(2, "high-1", 200);
+        waitList.add(3, "mid-1", 64);
+        waitList.add(4, "high-2", 200);
+        waitList.add(5, "low-2", 0);
+        waitList.add(6, "mid-2", 63);
+
+        assertEquals(waitList.poll(), "high-1");
+        assertEquals(waitList.poll(), "high-2");
+        assertEquals(waitList.poll(), "mid-1");
+        assertEquals(waitList.poll(), "mid-2");
+        assertEquals(waitList.poll(), "low-1");
+        assertEquals(waitList.poll(), "low-2");
+        assertNull(waitList.poll());
+        assertTrue(waitList.isEmpty());
+    }
+
+    @Test
+    public void testLevelBitClearedWhenEmptied() {
+        PriorityWaitList<Integer, String> waitList = new PriorityWaitList<>();
+
+        waitList.add(1, "a", 255);
+        waitList.add(2, "b", 1);
+        assertEquals(waitList.poll(), "a");
+
+        // Level 255 is empty again; a later, lower waiter must not be masked by a stale bit.
+        waitList.add(3, "c", 128);
+        assertEquals(waitList.poll(), "c");
+        assertEquals(waitList.poll(), "b");
+        assertNull(waitList.poll());
+    }
+
+    @Test
+    public void testDuplicateKeyIgnored() {
+        PriorityWaitList<Integer, String> waitList = new PriorityWaitList<>();
+
+        assertTrue(waitList.add(1, "first", 10));
+        assertFalse(waitList.add(1, "second", 250));
+        assertEquals(waitList.size(), 1);
+
+        assertEquals(waitList.poll(), "first");
+        assertTrue(waitList.add(1, "again", 10));
+    }
+
+    @Test
+    public void testPriorityClamped() {
+        PriorityWaitList<Integer, String> waitList = new PriorityWaitList<>();
+
+        waitList.add(1, "negative", -5);
+        waitList.add(2, "huge", 1000);
+
+        assertEquals(waitList.poll(), "huge");
+        assertEquals(waitList.poll(), "negative");
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import com.digitalpetri.opcua.sdk.server.util.MemoryBudget;
+import com.digitalpetri.opcua.stack.core.types.builtin.ByteString;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.ExtensionObject;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.structured.NotificationMessage;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+public class RetransmissionQueueTest {
+
+    @Test
+    public void testOldestEvictedWhenCountExceeded() {
+        MemoryBudget budget = new MemoryBudget(Long.MAX_VALUE);
+        RetransmissionQueue queue = new RetransmissionQueue(3, budget);
+
+        for (int i = 1; i <= 5; i++) {
+            queue.add(message(i, 10));
+        }
+
+        assertEquals(queue.getAvailableSequenceNumbers(), new UInteger[]{uint(3), uint(4), uint(5)});
+        assertNull(queue.get(uint(1)));
+        assertNotNull(queue.get(uint(5)));
+    }
+
+    @Test
+    public void testOldestEvictedWhenBudgetExceeded() {
+        long size = RetransmissionQueue.estimateSize(message(1, 100));
+        MemoryBudget budget = new MemoryBudget(size * 2);
+        RetransmissionQueue queue = new RetransmissionQueue(10, budget);
+
+        queue.add(message(1, 100));
+        queue.add(message(2, 100));
+        queue.add(message(3, 100));
+
+        assertEquals(queue.getAvailableSequenceNumbers(), new UInteger[]{uint(2), uint(3)});
+        assertEquals(budget.getUsed(), size * 2);
+
+        queue.clear();
+        assertEquals(budget.getUsed(), 0L);
+    }
+
+    @Test
+    public void testMinimumRetainedWhenSharedBudgetExhausted() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        RetransmissionQueue greedy = new RetransmissionQueue(100, 0, budget);
+        RetransmissionQueue starved = new RetransmissionQueue(100, 2, budget);
+
+        for (int i = 1; i <= 10; i++) {
+            greedy.add(message(i, 200));
+        }
+
+        for (int i = 1; i <= 5; i++) {
+            starved.add(message(i, 200));
+        }
+
+        assertEquals(starved.getAvailableSequenceNumbers(), new UInteger[]{uint(4), uint(5)});
+
+        long used = budget.getUsed();
+        starved.clear();
+        assertEquals(budget.getUsed(), used);
+    }
+
+    @Test
+    public void testAvailableSequenceNumbersAfterOutOfOrderAcknowledgements() {
+        RetransmissionQueue queue = new RetransmissionQueue(4, new MemoryBudget(Long.MAX_VALUE));
+
+        for (int i = 1; i <= 4; i++) {
+            queue.add(message(i, 10));
+        }
+
+        queue.remove(uint(2));
+        queue.remove(uint(1));
+        queue.add(message(5, 10));
+        queue.add(message(6, 10));
+        queue.remove(uint(5));
+
+        assertEquals(queue.getAvailableSequenceNumbers(), new UInteger[]{uint(3), uint(4), uint(6)});
+
+        // Wrap around the ring a few times.
+        for (int i = 7; i <= 20; i++) {
+            queue.add(message(i, 10));
+        }
+
+        assertEquals(queue.getAvailableSequenceNumbers(), new UInteger[]{uint(17), uint(18), uint(19), uint(20)});
+    }
+
+    private static NotificationMessage message(long sequenceNumber, int bodyLength) {
+        ExtensionObject xo = new ExtensionObject(ByteString.of(new byte[bodyLength]), NodeId.NULL_VALUE);
+
+        return new NotificationMessage(uint(sequenceNumber), DateTime.now(), new ExtensionObject[]{xo});
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.subscriptions;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class SampleRatesTest {
+
+    private final SampleRates ladder = new SampleRates(ImmutableList.of(1000.0, 100.0, 250.0, 500.0, 250.0));
+
+    @Test
+    public void testRoundsUpToNextRate() {
+        assertEquals(ladder.quantize(150.0, 0.0), 250.0);
+        assertEquals(ladder.quantize(101.0, 0.0), 250.0);
+        assertEquals(ladder.quantize(999.0, 0.0), 1000.0);
+    }
+
+    @Test
+    public void testExactRateUnchanged() {
+        assertEquals(ladder.quantize(100.0, 0.0), 100.0);
+        assertEquals(ladder.quantize(500.0, 0.0), 500.0);
+    }
+
+    @Test
+    public void testFasterThanLadderRoundsToFastestRate() {
+        assertEquals(ladder.quantize(0.0, 0.0), 100.0);
+        assertEquals(ladder.quantize(10.0, 0.0), 100.0);
+    }
+
+    @Test
+    public void testFloorRespected() {
+        assertEquals(ladder.quantize(100.0, 300.0), 500.0);
+        assertEquals(ladder.quantize(100.0, 1500.0), 2000.0);
+    }
+
+    @Test
+    public void testBeyondLargestRoundsUpToMultiple() {
+        assertEquals(ladder.quantize(1000.0, 0.0), 1000.0);
+        assertEquals(ladder.quantize(1001.0, 0.0), 2000.0);
+        assertEquals(ladder.quantize(2400.0, 0.0), 3000.0);
+    }
+
+    @Test
+    public void testEmptyLadderLeavesIntervalAlone() {
+        assertEquals(new SampleRates(ImmutableList.of()).quantize(150.0, 100.0), 150.0);
+        assertEquals(new SampleRates(null).quantize(37.5, 0.0), 37.5);
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.List;
+
+import com.digitalpetri.opcua.stack.core.Identifiers;
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.UaException;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.structured.AggregateFilter;
+import com.google.common.collect.Lists;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AggregateMonitoringFilterTest {
+
+    /**
+     * DateTime ticks are 100ns.
+     */
+    private static final long MS = 10_000L;
+
+    private static final long T0 = 130_000_000_000_000_000L;
+    private static final long INTERVAL = 1000 * MS;
+
+    private static final long HISTORIAN_PARTIAL = 0x00000004L;
+
+    private final List<DataValue> reported = Lists.newArrayList();
+
+    @Test
+    public void testConstantValueWithUnchangingSourceTimeClosesIntervals() throws UaException {
+        AggregateMonitoringFilter filter = create(Identifiers.AggregateFunction_Average);
+
+        // a polled tag that hasn't changed keeps returning the same SourceTimestamp.
+        DateTime sourceTime = new DateTime(T0 + 10 * MS);
+
+        for (long t = T0; t <= T0 + 2 * INTERVAL; t += 100 * MS) {
+            filter.add(new DataValue(new Variant(5.0), StatusCode.GOOD, sourceTime, new DateTime(t)), t);
+        }
+
+        assertEquals(reported.size(), 2);
+        assertEquals(reported.get(0).getValue().getValue(), 5.0);
+        assertEquals(reported.get(0).getSourceTime().getUtcTime(), T0);
+        assertEquals(reported.get(1).getSourceTime().getUtcTime(), T0 + INTERVAL);
+    }
+
+    @Test
+    public void testSourceTimeOlderThanCreationIsNotDropped() throws UaException {
+        AggregateMonitoringFilter filter = create(Identifiers.AggregateFunction_Count);
+
+        DateTime sourceTime = new DateTime(T0 - 24L * 60 * 60 * 1000 * MS);
+
+        filter.add(new DataValue(new Variant(1), StatusCode.GOOD, sourceTime, null), T0 + 100 * MS);
+        filter.add(new DataValue(new Variant(2), StatusCode.GOOD, sourceTime, null), T0 + 200 * MS);
+        filter.add(new DataValue(new Variant(3), StatusCode.GOOD, sourceTime, null), T0 + INTERVAL);
+
+        assertEquals(reported.size(), 1);
+        assertEquals(reported.get(0).getValue().getValue(), 2);
+    }
+
+    @Test
+    public void testAverageMinimumMaximumCountDelta() throws UaException {
+        double[] values = {4.0, 8.0, 1.0, 7.0};
+
+        assertEquals(single(Identifiers.AggregateFunction_Average, values), 5.0);
+        assertEquals(single(Identifiers.AggregateFunction_Minimum, values), 1.0);
+        assertEquals(single(Identifiers.AggregateFunction_Maximum, values), 8.0);
+        assertEquals(single(Identifiers.AggregateFunction_Count, values), 4);
+        assertEquals(single(Identifiers.AggregateFunction_Start, values), 4.0);
+        assertEquals(single(Identifiers.AggregateFunction_End, values), 7.0);
+        assertEquals(single(Identifiers.AggregateFunction_Delta, values), 3.0);
+    }
+
+    @Test
+    public void testTimeAverageAndTotalInterpolateLinearly() throws UaException {
+        // ramps 0 -> 10 over the first half, then holds 10: the time-weighted average is 7.5.
+        AggregateMonitoringFilter timeAverage = create(Identifiers.AggregateFunction_TimeAverage);
+        addAll(timeAverage, T0, 0.0, T0 + INTERVAL / 2, 10.0, T0 + INTERVAL, 10.0);
+
+        assertEquals((Double) reported.get(0).getValue().getValue(), 7.5, 1e-9);
+
+        reported.clear();
+
+        // ... and over one second the total is 7.5 value-seconds.
+        AggregateMonitoringFilter total = create(Identifiers.AggregateFunction_Total);
+        addAll(total, T0, 0.0, T0 + INTERVAL / 2, 10.0, T0 + INTERVAL, 10.0);
+
+        assertEquals((Double) reported.get(0).getValue().getValue(), 7.5, 1e-9);
+    }
+
+    @Test
+    public void testInterpolativeReportsValueAtIntervalStart() throws UaException {
+        AggregateMonitoringFilter filter = create(Identifiers.AggregateFunction_Interpolative);
+
+        addAll(filter,
+                T0, 0.0,
+                T0 + INTERVAL / 2, 10.0,
+                T0 + INTERVAL + INTERVAL / 2, 20.0,
+                T0 + 2 * INTERVAL + INTERVAL / 2, 30.0);
+
+        assertEquals(reported.size(), 2);
+        assertEquals((Double) reported.get(0).getValue().getValue(), 0.0, 1e-9);
+        assertEquals((Double) reported.get(1).getValue().getValue(), 15.0, 1e-9);
+    }
+
+    @Test
+    public void testQualityFollowsPercentDataGoodAndBad() throws UaException {
+        AggregateMonitoringFilter filter = create(Identifiers.AggregateFunction_Average);
+
+        filter.add(value(1.0), T0);
+        filter.add(new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_Timeout), null, null), T0 + MS);
+        filter.add(value(3.0), T0 + 2 * MS);
+
+        // an interval with no good values at all.
+        filter.add(new DataValue(Variant.NULL_VALUE, new StatusCode(StatusCodes.Bad_Timeout), null, null), T0 + INTERVAL);
+        filter.add(value(1.0), T0 + 2 * INTERVAL);
+
+        assertEquals(reported.size(), 2);
+
+        // 2 of 3 raw values good is below the default 100% PercentDataGood and above 0% bad.
+        assertEquals(reported.get(0).getValue().getValue(), 2.0);
+        assertEquals(code(reported.get(0)), StatusCodes.Uncertain_DataSubNormal);
+
+        assertEquals(code(reported.get(1)), StatusCodes.Bad_NoData);
+    }
+
+    @Test
+    public void testFirstSampleLateSkipsToItsIntervalAndIsPartial() throws UaException {
+        AggregateMonitoringFilter filter = create(Identifiers.AggregateFunction_Average);
+
+        filter.add(value(1.0), T0 + 3 * INTERVAL + INTERVAL / 2);
+        filter.add(value(2.0), T0 + 4 * INTERVAL);
+        filter.add(value(3.0), T0 + 5 * INTERVAL);
+
+        assertEquals(reported.size(), 2);
+        assertEquals(reported.get(0).getSourceTime().getUtcTime(), T0 + 3 * INTERVAL);
+        assertTrue((reported.get(0).getStatusCode().getValue() & HISTORIAN_PARTIAL) != 0);
+        assertFalse((reported.get(1).getStatusCode().getValue() & HISTORIAN_PARTIAL) != 0);
+    }
+
+    @Test
+    public void testProcessingIntervalRevisedToSamplingInterval() throws UaException {
+        AggregateFilter request = new AggregateFilter(
+                new DateTime(T0), Identifiers.AggregateFunction_Average, 100.0, null);
+
+        AggregateMonitoringFilter filter = AggregateMonitoringFilter.create(request, 500.0, T0, reported::add);
+
+        assertEquals(filter.getFilterResult().getRevisedProcessingInterval(), 500.0);
+    }
+
+    @Test
+    public void testUnsupportedAggregateRejected() {
+        AggregateFilter request = new AggregateFilter(
+                new DateTime(T0), Identifiers.AggregateFunction_Range, 1000.0, null);
+
+        try {
+            AggregateMonitoringFilter.create(request, 100.0, T0, reported::add);
+            fail("expected UaException");
+        } catch (UaException e) {
+            assertEquals(e.getStatusCode().getValue(), StatusCodes.Bad_AggregateNotSupported);
+        }
+    }
+
+    private AggregateMonitoringFilter create(NodeId aggregateType) throws UaException {
+        reported.clear();
+
+        AggregateFilter request = new AggregateFilter(new DateTime(T0), aggregateType, 1000.0, null);
+
+        return AggregateMonitoringFilter.create(request, 100.0, T0, reported::add);
+    }
+
+    /**
+     * Add {@code values} spread over the first interval, close it, and return the reported value.
+     */
+    private Object single(NodeId aggregateType, double... values) throws UaException {
+        AggregateMonitoringFilter filter = create(aggregateType);
+
+        for (int i = 0; i < values.length; i++) {
+            filter.add(value(values[i]), T0 + i * 100 * MS);
+        }
+
+        filter.add(value(0.0), T0 + INTERVAL);
+
+        assertEquals(reported.size(), 1);
+
+        return reported.get(0).getValue().getValue();
+    }
+
+    /**
+     * @param timesAndValues alternating sample times, in ticks, and values.
+     */
+    private static void addAll(AggregateMonitoringFilter filter, Object... timesAndValues) {
+        for (int i = 0; i < timesAndValues.length; i += 2) {
+            filter.add(value((Double) timesAndValues[i + 1]), (Long) timesAndValues[i]);
+        }
+    }
+
+    private static DataValue value(double value) {
+        return new DataValue(new Variant(value), StatusCode.GOOD, null, null);
+    }
+
+    private static long code(DataValue value) {
+        return value.getStatusCode().getValue() & 0xFFFF0000L;
+    }
+
+}
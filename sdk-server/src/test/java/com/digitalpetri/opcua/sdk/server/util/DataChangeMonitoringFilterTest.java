@@ -0,0 +1,187 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import com.digitalpetri.opcua.stack.core.StatusCodes;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DataChangeTrigger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.DeadbandType;
+import com.digitalpetri.opcua.stack.core.types.structured.DataChangeFilter;
+import com.digitalpetri.opcua.stack.core.types.structured.Range;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.ubyte;
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class DataChangeMonitoringFilterTest {
+
+    @Test
+    public void testFirstValueAlwaysPasses() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 100.0);
+
+        assertTrue(filter.test(null, value(1.0)));
+    }
+
+    @Test
+    public void testAbsoluteDeadbandDouble() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 1.0);
+
+        assertFalse(filter.test(value(10.0), value(10.0)));
+        assertFalse(filter.test(value(10.0), value(11.0)));
+        assertTrue(filter.test(value(10.0), value(11.5)));
+        assertTrue(filter.test(value(10.0), value(8.5)));
+    }
+
+    @Test
+    public void testAbsoluteDeadbandIntegral() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 2.0);
+
+        assertFalse(filter.test(value(10), value(12)));
+        assertTrue(filter.test(value(10), value(13)));
+        assertFalse(filter.test(value(uint(10)), value(uint(8))));
+        assertTrue(filter.test(value(ubyte(0)), value(ubyte(255))));
+
+        // the difference overflows a long; it must still exceed the deadband.
+        assertTrue(filter.test(value(Long.MIN_VALUE), value(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testAbsoluteDeadbandArrays() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 1.0);
+
+        assertFalse(filter.test(value(new double[]{1.0, 2.0}), value(new double[]{1.5, 2.5})));
+        assertTrue(filter.test(value(new double[]{1.0, 2.0}), value(new double[]{1.0, 3.5})));
+        assertTrue(filter.test(value(new double[]{1.0, 2.0}), value(new double[]{1.0, 2.0, 3.0})));
+
+        assertFalse(filter.test(value(new int[]{1, 2}), value(new int[]{2, 1})));
+        assertTrue(filter.test(value(new int[]{1, 2}), value(new int[]{1, 4})));
+
+        assertFalse(filter.test(value(new Integer[]{1, 2}), value(new Integer[]{2, 3})));
+        assertTrue(filter.test(value(new Integer[]{1, 2}), value(new Integer[]{1, null})));
+    }
+
+    @Test
+    public void testMixedNumericTypesCompareAsDouble() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 1.0);
+
+        assertFalse(filter.test(value(10), value(10.5)));
+        assertTrue(filter.test(value(10), value(11.5f)));
+    }
+
+    @Test
+    public void testNonNumericValuesIgnoreDeadband() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 100.0);
+
+        assertFalse(filter.test(value("a"), value("a")));
+        assertTrue(filter.test(value("a"), value("b")));
+    }
+
+    @Test
+    public void testStatusTrigger() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.Status, DeadbandType.None, 0.0);
+
+        assertFalse(filter.test(value(1.0), value(2.0)));
+        assertTrue(filter.test(value(1.0), new DataValue(
+                new Variant(1.0), new StatusCode(StatusCodes.Bad_Timeout), null, DateTime.now())));
+    }
+
+    @Test
+    public void testStatusValueTimestampTrigger() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValueTimestamp, DeadbandType.None, 0.0);
+
+        DataValue v1 = new DataValue(new Variant(1.0), StatusCode.GOOD, new DateTime(1000L), DateTime.now());
+        DataValue v2 = new DataValue(new Variant(1.0), StatusCode.GOOD, new DateTime(2000L), DateTime.now());
+
+        assertFalse(filter.test(v1, v1));
+        assertTrue(filter.test(v1, v2));
+    }
+
+    @Test
+    public void testStatusValueTimestampTriggerIgnoresUnreportedSourceTime() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValueTimestamp, DeadbandType.None, 0.0);
+
+        DataValue v1 = new DataValue(new Variant(1.0), StatusCode.GOOD, new DateTime(1000L), DateTime.now());
+        DataValue v2 = new DataValue(new Variant(1.0), StatusCode.GOOD, new DateTime(2000L), DateTime.now());
+        DataValue v3 = new DataValue(new Variant(2.0), StatusCode.GOOD, new DateTime(2000L), DateTime.now());
+
+        // a last value with its source time removed compares equal to the same value as read.
+        DataValue derived = new DataValue(new Variant(1.0), StatusCode.GOOD, null, DateTime.now());
+
+        assertFalse(filter.test(v1, v2, false));
+        assertFalse(filter.test(derived, v2, false));
+        assertTrue(filter.test(derived, v2, true));
+        assertTrue(filter.test(v1, v3, false));
+    }
+
+    @Test
+    public void testPercentDeadbandWithoutEURangePassesEveryChange() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Percent, 10.0);
+
+        assertFalse(filter.test(value(50.0), value(50.0)));
+        assertTrue(filter.test(value(50.0), value(50.1)));
+    }
+
+    @Test
+    public void testPercentDeadbandFollowsEURangeUpdates() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Percent, 10.0);
+
+        // 10% of [0, 200] is 20.
+        filter.setEURange(new Range(0.0, 200.0));
+        assertFalse(filter.test(value(50.0), value(65.0)));
+        assertTrue(filter.test(value(50.0), value(75.0)));
+
+        // 10% of [0, 1000] is 100.
+        filter.setEURange(new Range(0.0, 1000.0));
+        assertFalse(filter.test(value(50.0), value(75.0)));
+        assertTrue(filter.test(value(50.0), value(151.0)));
+
+        // an incomplete range disables the deadband again.
+        filter.setEURange(new Range(0.0, null));
+        assertTrue(filter.test(value(50.0), value(50.1)));
+    }
+
+    @Test
+    public void testEURangeIgnoredForAbsoluteDeadband() {
+        DataChangeMonitoringFilter filter = compile(DataChangeTrigger.StatusValue, DeadbandType.Absolute, 5.0);
+
+        filter.setEURange(new Range(0.0, 1000.0));
+
+        assertFalse(filter.test(value(50.0), value(54.0)));
+        assertTrue(filter.test(value(50.0), value(56.0)));
+    }
+
+    private static DataChangeMonitoringFilter compile(DataChangeTrigger trigger,
+                                                      DeadbandType deadbandType,
+                                                      double deadbandValue) {
+
+        return DataChangeMonitoringFilter.compile(
+                new DataChangeFilter(trigger, uint(deadbandType.getValue()), deadbandValue));
+    }
+
+    private static DataValue value(Object value) {
+        return new DataValue(new Variant(value), StatusCode.GOOD, null, DateTime.now());
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class HashedTimerWheelTest {
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService executor;
+    private HashedTimerWheel wheel;
+
+    @BeforeClass
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = Executors.newSingleThreadExecutor();
+
+        wheel = new HashedTimerWheel(scheduler, executor, 10, TimeUnit.MILLISECONDS, 16);
+        wheel.start();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        wheel.stop();
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWheelSizeRoundedToPowerOfTwo() {
+        HashedTimerWheel w = new HashedTimerWheel(scheduler, executor, 10, TimeUnit.MILLISECONDS, 100);
+
+        assertEquals(w.getWheelSize(), 128);
+    }
+
+    @Test
+    public void testTimeoutsExpireNoSoonerThanDelay() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(100);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 100; i++) {
+            wheel.newTimeout(latch::countDown, 50, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testTimeoutLongerThanOneRound() throws InterruptedException {
+        // 16 buckets * 10ms = 160ms per round.
+        CountDownLatch latch = new CountDownLatch(1);
+        long start = System.nanoTime();
+
+        wheel.newTimeout(latch::countDown, 400, TimeUnit.MILLISECONDS);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotRun() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean(false);
+        CountDownLatch after = new CountDownLatch(1);
+
+        HashedTimerWheel.Timeout timeout = wheel.newTimeout(() -> ran.set(true), 30, TimeUnit.MILLISECONDS);
+        timeout.cancel();
+
+        wheel.newTimeout(after::countDown, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(after.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    public void testTimeoutsSurviveRestart() throws InterruptedException {
+        HashedTimerWheel w = new HashedTimerWheel(scheduler, executor, 10, TimeUnit.MILLISECONDS, 16);
+        w.start();
+
+        CountDownLatch latch = new CountDownLatch(2);
+        long start = System.nanoTime();
+
+        w.newTimeout(latch::countDown, 100, TimeUnit.MILLISECONDS);
+        Thread.sleep(30);
+
+        w.stop();
+        Thread.sleep(50);
+        w.start();
+
+        // Scheduled after the restart; must not be misplaced by a tick count carried over from the first run.
+        w.newTimeout(latch::countDown, 100, TimeUnit.MILLISECONDS);
+
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(180));
+        } finally {
+            w.stop();
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void testReserveAndRelease() {
+        MemoryBudget budget = new MemoryBudget(100);
+
+        assertTrue(budget.tryReserve(60));
+        assertFalse(budget.tryReserve(41));
+        assertTrue(budget.tryReserve(40));
+        assertEquals(budget.getAvailable(), 0L);
+
+        budget.release(60);
+        assertEquals(budget.getUsed(), 40L);
+        assertEquals(budget.getAvailable(), 60L);
+    }
+
+    @Test
+    public void testChildReservationMustFitInParent() {
+        MemoryBudget parent = new MemoryBudget(100);
+        MemoryBudget a = new MemoryBudget(80, parent);
+        MemoryBudget b = new MemoryBudget(80, parent);
+
+        assertTrue(a.tryReserve(70));
+        assertFalse(b.tryReserve(40));
+
+        // A failed reservation must not leak into the child.
+        assertEquals(b.getUsed(), 0L);
+        assertEquals(parent.getUsed(), 70L);
+
+        assertTrue(b.tryReserve(30));
+        assertEquals(parent.getUsed(), 100L);
+
+        a.release(70);
+        assertEquals(parent.getUsed(), 30L);
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class OverloadGovernorTest {
+
+    /**
+     * Protected priority 192, so priorities are split into bands of 48; queue depth over 100 is pressure; two calm
+     * intervals lower the level.
+     */
+    private final OpcUaServerConfigLimits limits = new OpcUaServerConfigLimits() {
+        @Override
+        public Integer getOverloadQueueDepthThreshold() {
+            return 100;
+        }
+
+        @Override
+        public Integer getOverloadRecoveryIntervals() {
+            return 2;
+        }
+    };
+
+    @Test
+    public void testLevelRaisedUnderPressureAndCapped() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        for (int i = 1; i <= OverloadGovernor.MAX_LEVEL + 2; i++) {
+            governor.evaluate(101, 0L, 0L);
+
+            assertEquals(governor.getLevel(), Math.min(i, OverloadGovernor.MAX_LEVEL));
+        }
+
+        assertTrue(governor.isRejectingMonitoredItems());
+        assertEquals(governor.getStats().getLevel(), OverloadGovernor.MAX_LEVEL);
+        assertEquals(governor.getStats().getQueueDepth(), 101);
+    }
+
+    @Test
+    public void testEachSignalIsPressure() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        governor.evaluate(0, limits.getOverloadOverrunThreshold() + 1, 0L);
+        assertEquals(governor.getLevel(), 1);
+
+        governor.evaluate(0, 0L, 251_000_000L);
+        assertEquals(governor.getLevel(), 2);
+
+        governor.evaluate(100, limits.getOverloadOverrunThreshold(), 250_000_000L);
+        assertEquals(governor.getLevel(), 2);
+    }
+
+    @Test
+    public void testLevelLoweredAfterCalmIntervals() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        governor.evaluate(101, 0L, 0L);
+        governor.evaluate(101, 0L, 0L);
+
+        governor.evaluate(0, 0L, 0L);
+        assertEquals(governor.getLevel(), 2);
+        governor.evaluate(0, 0L, 0L);
+        assertEquals(governor.getLevel(), 1);
+
+        // pressure resets the calm count.
+        governor.evaluate(0, 0L, 0L);
+        governor.evaluate(101, 0L, 0L);
+        assertEquals(governor.getLevel(), 2);
+        governor.evaluate(0, 0L, 0L);
+        assertEquals(governor.getLevel(), 2);
+        governor.evaluate(0, 0L, 0L);
+        assertEquals(governor.getLevel(), 1);
+
+        governor.evaluate(0, 0L, 0L);
+        governor.evaluate(0, 0L, 0L);
+        assertEquals(governor.getLevel(), 0);
+        assertFalse(governor.isRejectingMonitoredItems());
+    }
+
+    @Test
+    public void testNoThrottlingWhenNotDegraded() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        for (int priority = 0; priority < 256; priority++) {
+            assertEquals(governor.getSamplingDivisor(priority), 1);
+        }
+    }
+
+    @Test
+    public void testSamplingDivisorsByBand() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        // level 1 throttles only the lowest band.
+        assertEquals(governor.getSamplingDivisor(0, 1), 2);
+        assertEquals(governor.getSamplingDivisor(47, 1), 2);
+        assertEquals(governor.getSamplingDivisor(48, 1), 1);
+
+        // each level throttles one more band and doubles the divisor of those already throttled.
+        assertEquals(governor.getSamplingDivisor(0, 3), 8);
+        assertEquals(governor.getSamplingDivisor(48, 3), 4);
+        assertEquals(governor.getSamplingDivisor(96, 3), 2);
+        assertEquals(governor.getSamplingDivisor(144, 3), 1);
+
+        assertEquals(governor.getSamplingDivisor(0, 4), 16);
+        assertEquals(governor.getSamplingDivisor(191, 4), 2);
+
+        // protected priorities are never throttled.
+        assertEquals(governor.getSamplingDivisor(192, 4), 1);
+        assertEquals(governor.getSamplingDivisor(255, 4), 1);
+    }
+
+    @Test
+    public void testSamplingDivisorsArePowersOfTwo() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        for (int level = 0; level <= OverloadGovernor.MAX_LEVEL; level++) {
+            for (int priority = 0; priority < 256; priority++) {
+                int divisor = governor.getSamplingDivisor(priority, level);
+
+                assertEquals(Integer.bitCount(divisor), 1);
+                assertTrue(divisor <= 1 << OverloadGovernor.MAX_LEVEL);
+            }
+        }
+    }
+
+    @Test
+    public void testPublicDivisorFollowsLevel() {
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        governor.evaluate(101, 0L, 0L);
+        governor.evaluate(101, 0L, 0L);
+
+        assertEquals(governor.getSamplingDivisor(0), governor.getSamplingDivisor(0, 2));
+        assertEquals(governor.getSamplingDivisor(0), 4);
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.api.DataItemUpdate;
+import com.digitalpetri.opcua.sdk.server.items.MonitoredDataItem;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.enumerated.MonitoringMode;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class QueueCreditDataChangeSinkTest {
+
+    private double next = 0.0;
+
+    @Test
+    public void testOneHotItemExhaustsCredit() throws Exception {
+        QueueCreditDataChangeSink sink = new QueueCreditDataChangeSink();
+
+        MonitoredDataItem hot = newItem(1, 2);
+        MonitoredDataItem cold = newItem(2, 10);
+
+        sink.register(hot);
+        sink.register(cold);
+
+        assertEquals(sink.getCredit(), 12);
+
+        assertEquals(push(sink, hot), 11);
+        assertEquals(push(sink, hot), 0);
+
+        // the total still has room, but the hot item would overflow.
+        assertEquals(sink.getCredit(), 0);
+        assertEquals(sink.getCredit(hot), 0);
+        assertEquals(sink.getCredit(cold), 10);
+    }
+
+    @Test
+    public void testCreditRecoversWhenLastSaturatedItemDrains() throws Exception {
+        QueueCreditDataChangeSink sink = new QueueCreditDataChangeSink();
+        List<Integer> available = new ArrayList<>();
+        sink.setCreditListener(available::add);
+
+        MonitoredDataItem a = newItem(1, 1);
+        MonitoredDataItem b = newItem(2, 2);
+        MonitoredDataItem c = newItem(3, 4);
+
+        sink.register(a);
+        sink.register(b);
+        sink.register(c);
+
+        push(sink, a);
+        push(sink, b);
+        push(sink, b);
+
+        // overflowing an item that's already saturated doesn't count it twice.
+        push(sink, a);
+        assertEquals(sink.getCredit(), 0);
+
+        drain(a);
+        assertEquals(sink.getCredit(), 0);
+        assertTrue(available.isEmpty());
+
+        drain(b);
+        assertEquals(sink.getCredit(), 7);
+        assertEquals(available, ImmutableList.of(7));
+
+        // draining further doesn't notify again.
+        push(sink, c);
+        drain(c);
+        assertEquals(available, ImmutableList.of(7));
+    }
+
+    @Test
+    public void testUnregisteringSaturatedItemRestoresCredit() throws Exception {
+        QueueCreditDataChangeSink sink = new QueueCreditDataChangeSink();
+        List<Integer> available = new ArrayList<>();
+        sink.setCreditListener(available::add);
+
+        MonitoredDataItem hot = newItem(1, 1);
+        MonitoredDataItem cold = newItem(2, 3);
+
+        sink.register(hot);
+        sink.register(cold);
+
+        push(sink, hot);
+        assertEquals(sink.getCredit(), 0);
+
+        sink.unregister(hot);
+        assertEquals(sink.getCredit(), 3);
+        assertEquals(sink.getCredit(hot), 0);
+        assertEquals(available, ImmutableList.of(3));
+
+        // no longer tracked.
+        drain(hot);
+        assertEquals(sink.getCredit(), 3);
+    }
+
+    @Test
+    public void testItemSharedBetweenSinks() throws Exception {
+        QueueCreditDataChangeSink first = new QueueCreditDataChangeSink();
+        QueueCreditDataChangeSink second = new QueueCreditDataChangeSink();
+
+        MonitoredDataItem item = newItem(1, 4);
+
+        first.register(item);
+        second.register(item);
+
+        push(first, item);
+        assertEquals(first.getCredit(), 3);
+        assertEquals(second.getCredit(), 3);
+
+        first.unregister(item);
+
+        push(second, item);
+        assertEquals(second.getCredit(), 2);
+        assertEquals(first.getCredit(), 0);
+
+        drain(item);
+        assertEquals(second.getCredit(), 4);
+    }
+
+    private int push(QueueCreditDataChangeSink sink, MonitoredDataItem item) {
+        DataValue value = new DataValue(new Variant(next++), StatusCode.GOOD, DateTime.now(), DateTime.now());
+
+        return sink.push(ImmutableList.of(new DataItemUpdate(item, value)));
+    }
+
+    private static void drain(MonitoredDataItem item) {
+        item.getNotifications(new ArrayList<>(), Integer.MAX_VALUE);
+    }
+
+    private static MonitoredDataItem newItem(int id, int queueSize) throws Exception {
+        return new MonitoredDataItem(
+                uint(id),
+                new ReadValueId(new NodeId(2, "Value" + id), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE),
+                MonitoringMode.Reporting,
+                TimestampsToReturn.Both,
+                uint(id),
+                100.0,
+                null,
+                uint(queueSize),
+                true);
+    }
+
+}
@@ -0,0 +1,400 @@
+/*
+ * digitalpetri OPC-UA SDK
+ *
+ * Copyright (C) 2015 Kevin Herron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.digitalpetri.opcua.sdk.server.util;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.opcua.sdk.core.AttributeIds;
+import com.digitalpetri.opcua.sdk.server.api.AttributeManager;
+import com.digitalpetri.opcua.sdk.server.api.DataItem;
+import com.digitalpetri.opcua.sdk.server.api.config.OpcUaServerConfigLimits;
+import com.digitalpetri.opcua.stack.core.types.builtin.DataValue;
+import com.digitalpetri.opcua.stack.core.types.builtin.DateTime;
+import com.digitalpetri.opcua.stack.core.types.builtin.NodeId;
+import com.digitalpetri.opcua.stack.core.types.builtin.QualifiedName;
+import com.digitalpetri.opcua.stack.core.types.builtin.StatusCode;
+import com.digitalpetri.opcua.stack.core.types.builtin.Variant;
+import com.digitalpetri.opcua.stack.core.types.builtin.unsigned.UInteger;
+import com.digitalpetri.opcua.stack.core.types.enumerated.TimestampsToReturn;
+import com.digitalpetri.opcua.stack.core.types.structured.ReadValueId;
+import com.digitalpetri.opcua.stack.core.types.structured.WriteValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static com.digitalpetri.opcua.stack.core.types.builtin.unsigned.Unsigned.uint;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Model changes run on a direct executor, so they're applied by the time each call returns, and fixed-rate samples
+ * are only taken when a test runs them.
+ */
+public class SubscriptionModelTest {
+
+    private final OpcUaServerConfigLimits limits = new OpcUaServerConfigLimits() {};
+
+    private ManualScheduler scheduler;
+    private TestAttributes attributes;
+    private SubscriptionModel model;
+
+    private int nextId = 0;
+
+    @BeforeMethod
+    public void setUp() {
+        ExecutorService executor = MoreExecutors.newDirectExecutorService();
+        OverloadGovernor governor = new OverloadGovernor(null, limits);
+
+        scheduler = new ManualScheduler();
+        attributes = new TestAttributes();
+
+        model = new SubscriptionModel(
+                null, limits, () -> governor, executor, scheduler, executor, attributes, nodeId -> Optional.empty());
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testAddingItemKeepsExistingScheduleAndPhase() {
+        TestItem a = item("a", 100.0);
+        model.onDataItemsCreated(ImmutableList.of(a));
+
+        FixedRate schedule = scheduler.at(100.0);
+        assertNotNull(schedule);
+
+        schedule.run();
+        assertEquals(attributes.lastRead(), ids(a));
+
+        TestItem b = item("b", 100.0);
+        model.onDataItemsCreated(ImmutableList.of(b));
+
+        // b joined the running schedule; it wasn't restarted, so it keeps its phase.
+        assertEquals(scheduler.schedules.size(), 1);
+        assertFalse(schedule.future.isCancelled());
+
+        schedule.run();
+        assertEquals(attributes.lastRead(), ids(a, b));
+
+        model.onDataItemsDeleted(ImmutableList.of(a));
+
+        assertEquals(scheduler.schedules.size(), 1);
+        assertFalse(schedule.future.isCancelled());
+
+        schedule.run();
+        assertEquals(attributes.lastRead(), ids(b));
+    }
+
+    @Test
+    public void testNewItemSampledOnceBeforeItsFirstScheduledSample() {
+        TestItem a = item("a", 100.0);
+        model.onDataItemsCreated(ImmutableList.of(a));
+
+        attributes.value = 1.0;
+        TestItem b = item("b", 100.0);
+        model.onDataItemsCreated(ImmutableList.of(b));
+
+        // only b is read for its first value; a waits for the schedule.
+        assertEquals(attributes.lastRead(), ids(b));
+        assertEquals(b.values.size(), 1);
+        assertEquals(a.values.size(), 1);
+    }
+
+    @Test
+    public void testScheduleCancelledOnlyWhenItsIntervalDisappears() {
+        TestItem a = item("a", 100.0);
+        TestItem b = item("b", 100.0);
+        TestItem c = item("c", 250.0);
+
+        model.onDataItemsCreated(ImmutableList.of(a, b, c));
+
+        FixedRate fast = scheduler.at(100.0);
+        FixedRate slow = scheduler.at(250.0);
+
+        assertEquals(scheduler.schedules.size(), 2);
+
+        model.onDataItemsDeleted(ImmutableList.of(a));
+        assertFalse(fast.future.isCancelled());
+
+        model.onDataItemsDeleted(ImmutableList.of(b));
+        assertTrue(fast.future.isCancelled());
+        assertFalse(slow.future.isCancelled());
+
+        // the interval came back; it gets a new schedule.
+        TestItem d = item("d", 100.0);
+        model.onDataItemsCreated(ImmutableList.of(d));
+
+        assertEquals(scheduler.schedules.size(), 3);
+        assertFalse(scheduler.at(100.0).future.isCancelled());
+        assertEquals(model.getSamplingStats().size(), 2);
+    }
+
+    @Test
+    public void testModifiedItemMovesBetweenSchedules() {
+        TestItem a = item("a", 100.0);
+        TestItem b = item("b", 100.0);
+
+        model.onDataItemsCreated(ImmutableList.of(a, b));
+
+        FixedRate fast = scheduler.at(100.0);
+
+        b.samplingInterval = 500.0;
+        model.onDataItemsModified(ImmutableList.of(b));
+
+        FixedRate slow = scheduler.at(500.0);
+        assertNotNull(slow);
+        assertFalse(fast.future.isCancelled());
+
+        fast.run();
+        assertEquals(attributes.lastRead(), ids(a));
+
+        slow.run();
+        assertEquals(attributes.lastRead(), ids(b));
+
+        // an unchanged modification doesn't move anything.
+        model.onDataItemsModified(ImmutableList.of(b));
+        assertEquals(scheduler.schedules.size(), 2);
+    }
+
+    @Test
+    public void testIdenticalItemsShareOneRead() {
+        TestItem a = item("shared", 100.0);
+        TestItem b = item("shared", 100.0);
+        TestItem c = item("other", 100.0);
+
+        model.onDataItemsCreated(ImmutableList.of(a, b, c));
+
+        FixedRate schedule = scheduler.at(100.0);
+        schedule.run();
+
+        assertEquals(attributes.lastRead(), ids(a, c));
+        assertEquals(model.getSamplingStats().get(0).getSampledValues(), 2);
+
+        // the shared value stays read while either item remains.
+        model.onDataItemsDeleted(ImmutableList.of(a));
+        schedule.run();
+        assertEquals(attributes.lastRead(), ids(b, c));
+    }
+
+    @Test
+    public void testSharedReadFilteredAndDerivedPerItem() {
+        TestItem all = item("shared", 100.0);
+        all.timestamps = TimestampsToReturn.Both;
+
+        TestItem large = item("shared", 100.0);
+        large.timestamps = TimestampsToReturn.Neither;
+        large.filter = value -> ((Double) value.getValue().getValue()) > 10.0;
+
+        model.onDataItemsCreated(ImmutableList.of(all, large));
+        all.values.clear();
+        large.values.clear();
+
+        FixedRate schedule = scheduler.at(100.0);
+
+        attributes.value = 5.0;
+        schedule.run();
+
+        assertEquals(attributes.reads.size(), 2);
+        assertEquals(all.values.size(), 1);
+        assertEquals(large.values.size(), 0);
+
+        attributes.value = 20.0;
+        schedule.run();
+
+        assertEquals(all.values.size(), 2);
+        assertEquals(large.values.size(), 1);
+
+        // one read, but each item gets the value with the timestamps it asked for.
+        assertNotNull(all.values.get(1).getSourceTime());
+        assertNull(large.values.get(0).getSourceTime());
+        assertEquals(large.values.get(0).getValue(), new Variant(20.0));
+    }
+
+    private TestItem item(String node, double samplingInterval) {
+        return new TestItem(uint(nextId++), node, samplingInterval);
+    }
+
+    private static List<NodeId> ids(TestItem... items) {
+        return Lists.newArrayList(items).stream()
+                .map(item -> item.readValueId.getNodeId())
+                .collect(Collectors.toList());
+    }
+
+    private static class FixedRate {
+        final Runnable command;
+        final long period;
+        final ScheduledFuture<?> future;
+
+        FixedRate(Runnable command, long period, ScheduledFuture<?> future) {
+            this.command = command;
+            this.period = period;
+            this.future = future;
+        }
+
+        void run() {
+            command.run();
+        }
+    }
+
+    /**
+     * Records fixed-rate schedules instead of running them.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        final List<FixedRate> schedules = Lists.newCopyOnWriteArrayList();
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command,
+                                                      long initialDelay,
+                                                      long period,
+                                                      TimeUnit unit) {
+
+            ScheduledFuture<?> future = schedule(() -> {}, 1, TimeUnit.HOURS);
+
+            schedules.add(new FixedRate(command, unit.toMillis(period), future));
+
+            return future;
+        }
+
+        /**
+         * @return the latest schedule at {@code samplingInterval}, or {@code null} if there isn't one.
+         */
+        FixedRate at(double samplingInterval) {
+            FixedRate latest = null;
+
+            for (FixedRate fixedRate : schedules) {
+                if (fixedRate.period == (long) samplingInterval) latest = fixedRate;
+            }
+
+            return latest;
+        }
+
+    }
+
+    private static class TestAttributes implements AttributeManager {
+
+        final List<List<ReadValueId>> reads = Lists.newCopyOnWriteArrayList();
+
+        volatile double value = 0.0;
+
+        @Override
+        public void read(ReadContext context,
+                         Double maxAge,
+                         TimestampsToReturn timestamps,
+                         List<ReadValueId> readValueIds) {
+
+            reads.add(readValueIds);
+
+            DataValue value = new DataValue(new Variant(this.value), StatusCode.GOOD, DateTime.now(), DateTime.now());
+
+            context.getFuture().complete(
+                    readValueIds.stream().map(id -> value).collect(Collectors.toList()));
+        }
+
+        @Override
+        public void write(WriteContext context, List<WriteValue> writeValues) {}
+
+        List<NodeId> lastRead() {
+            return reads.get(reads.size() - 1).stream()
+                    .map(ReadValueId::getNodeId)
+                    .collect(Collectors.toList());
+        }
+
+    }
+
+    private static class TestItem implements DataItem {
+
+        final List<DataValue> values = Lists.newCopyOnWriteArrayList();
+
+        volatile double samplingInterval;
+        volatile TimestampsToReturn timestamps = TimestampsToReturn.Both;
+        volatile Predicate<DataValue> filter = value -> true;
+
+        final UInteger id;
+        final ReadValueId readValueId;
+
+        TestItem(UInteger id, String node, double samplingInterval) {
+            this.id = id;
+            this.samplingInterval = samplingInterval;
+
+            readValueId = new ReadValueId(
+                    new NodeId(2, node), uint(AttributeIds.Value), null, QualifiedName.NULL_VALUE);
+        }
+
+        @Override
+        public UInteger getId() {
+            return id;
+        }
+
+        @Override
+        public ReadValueId getReadValueId() {
+            return readValueId;
+        }
+
+        @Override
+        public TimestampsToReturn getTimestampsToReturn() {
+            return timestamps;
+        }
+
+        @Override
+        public boolean isSamplingEnabled() {
+            return true;
+        }
+
+        @Override
+        public void setValue(DataValue value) {
+            values.add(value);
+        }
+
+        @Override
+        public boolean passesFilter(DataValue value) {
+            return filter.test(value);
+        }
+
+        @Override
+        public void setQuality(StatusCode quality) {}
+
+        @Override
+        public double getSamplingInterval() {
+            return samplingInterval;
+        }
+
+    }
+
+}